@@ -0,0 +1,169 @@
+package com.mystictri.neotexture;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * A uniform grid over the bounds of the nodes of a TextureGraph so that the
+ * nodes at a position or in a rectangle (for example the visible part of the
+ * editor) are found without testing all nodes. A node updates the grid itself
+ * when it is moved or folded.
+ */
+final class NodeGrid {
+	static final int CELL_SIZE = 256;
+
+	// the cells a node is stored in and its position in the order of allNodes
+	private static final class Entry {
+		final long order;
+		int cx0, cy0, cx1, cy1;
+
+		Entry(long order) {
+			this.order = order;
+		}
+	}
+
+	private final HashMap<Long, Vector<TextureGraphNode>> cells = new HashMap<Long, Vector<TextureGraphNode>>();
+	private final HashMap<TextureGraphNode, Entry> entries = new HashMap<TextureGraphNode, Entry>();
+	// nodes are added in the order of allNodes (and removing keeps the order)
+	private long nextOrder = 0;
+
+	/** The bounds of n in world coordinates including its connection points */
+	static int minX(TextureGraphNode n) {
+		return n.posX - 4;
+	}
+
+	static int maxX(TextureGraphNode n) {
+		return n.posX + TextureGraphNode.width + 4;
+	}
+
+	static int minY(TextureGraphNode n) {
+		return n.posY;
+	}
+
+	static int maxY(TextureGraphNode n) {
+		return n.posY + Math.max(TextureGraphNode.height, n.getHeight());
+	}
+
+	private static int cell(int v) {
+		return Math.floorDiv(v, CELL_SIZE);
+	}
+
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+
+	void add(TextureGraphNode n) {
+		Entry e = new Entry(nextOrder++);
+		entries.put(n, e);
+		n.grid = this;
+		setCells(n, e);
+		insert(n, e);
+	}
+
+	void remove(TextureGraphNode n) {
+		Entry e = entries.remove(n);
+		if (e == null) return;
+		erase(n, e);
+		n.grid = null;
+	}
+
+	/** Called by the node after its bounds changed */
+	void update(TextureGraphNode n) {
+		Entry e = entries.get(n);
+		if (e == null) return;
+		if (e.cx0 == cell(minX(n)) && e.cy0 == cell(minY(n)) && e.cx1 == cell(maxX(n)) && e.cy1 == cell(maxY(n))) return;
+		erase(n, e);
+		setCells(n, e);
+		insert(n, e);
+	}
+
+	void clear() {
+		for (TextureGraphNode n : entries.keySet()) {
+			n.grid = null;
+		}
+		entries.clear();
+		cells.clear();
+	}
+
+	private void setCells(TextureGraphNode n, Entry e) {
+		e.cx0 = cell(minX(n));
+		e.cy0 = cell(minY(n));
+		e.cx1 = cell(maxX(n));
+		e.cy1 = cell(maxY(n));
+	}
+
+	private void insert(TextureGraphNode n, Entry e) {
+		for (int cy = e.cy0; cy <= e.cy1; cy++) {
+			for (int cx = e.cx0; cx <= e.cx1; cx++) {
+				Long k = key(cx, cy);
+				Vector<TextureGraphNode> c = cells.get(k);
+				if (c == null) {
+					c = new Vector<TextureGraphNode>(4);
+					cells.put(k, c);
+				}
+				c.add(n);
+			}
+		}
+	}
+
+	private void erase(TextureGraphNode n, Entry e) {
+		for (int cy = e.cy0; cy <= e.cy1; cy++) {
+			for (int cx = e.cx0; cx <= e.cx1; cx++) {
+				Long k = key(cx, cy);
+				Vector<TextureGraphNode> c = cells.get(k);
+				c.remove(n);
+				if (c.isEmpty()) cells.remove(k);
+			}
+		}
+	}
+
+	/**
+	 * @return the node that contains the point (see
+	 *         TextureGraphNode.containsPoint) and comes last in allNodes (so
+	 *         it is drawn on top) or null
+	 */
+	TextureGraphNode getNodeAt(int x, int y) {
+		Vector<TextureGraphNode> c = cells.get(key(cell(x), cell(y)));
+		if (c == null) return null;
+		TextureGraphNode ret = null;
+		long order = -1;
+		for (TextureGraphNode n : c) {
+			Entry e = entries.get(n);
+			if (e.order > order && n.containsPoint(x, y)) {
+				ret = n;
+				order = e.order;
+			}
+		}
+		return ret;
+	}
+
+	/** @return all nodes whose bounds intersect the rectangle, in the order of allNodes */
+	Vector<TextureGraphNode> getNodesIn(int x0, int y0, int x1, int y1) {
+		int cx0 = cell(x0), cy0 = cell(y0), cx1 = cell(x1), cy1 = cell(y1);
+		HashSet<TextureGraphNode> found = new HashSet<TextureGraphNode>();
+		if ((long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1) > cells.size()) {
+			// a large rectangle: only look at the cells that are not empty
+			for (Map.Entry<Long, Vector<TextureGraphNode>> c : cells.entrySet()) {
+				int cx = (int) (c.getKey() >> 32);
+				int cy = (int) (long) c.getKey();
+				if (cx >= cx0 && cx <= cx1 && cy >= cy0 && cy <= cy1) found.addAll(c.getValue());
+			}
+		} else {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				for (int cx = cx0; cx <= cx1; cx++) {
+					Vector<TextureGraphNode> c = cells.get(key(cx, cy));
+					if (c != null) found.addAll(c);
+				}
+			}
+		}
+
+		Vector<TextureGraphNode> ret = new Vector<TextureGraphNode>(found.size());
+		for (TextureGraphNode n : found) {
+			if (maxX(n) >= x0 && minX(n) <= x1 && maxY(n) >= y0 && minY(n) <= y1) ret.add(n);
+		}
+		ret.sort((a, b) -> Long.compare(entries.get(a).order, entries.get(b).order));
+		return ret;
+	}
+}
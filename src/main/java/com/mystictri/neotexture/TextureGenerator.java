@@ -1,14 +1,21 @@
 package com.mystictri.neotexture;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Scanner;
 
+import engine.base.FMath;
 import engine.base.Utils;
 import engine.graphics.synthesis.texture.CacheTileManager;
 import engine.graphics.synthesis.texture.Channel;
+import engine.graphics.synthesis.texture.ChannelCompiler;
+import engine.graphics.synthesis.texture.ChannelCompiler.CompiledChannel;
 import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+import engine.parameters.Tokenizer;
 
 /**
  * This is the public interface to the NeoTexture procedural texture generation
@@ -27,6 +34,9 @@ public final class TextureGenerator {
 	static private String version = "0.6.5-devel";
 	static private boolean useCache = false;
 	static private int cacheTileResolution = 256;
+	static private boolean useFastMath = false;
+	static private boolean useCompiler = false;
+	static private boolean optimizeGraph = false;
 
 	/**
 	 * To simplify the interface and texture access only a single graph existis
@@ -46,13 +56,60 @@ public final class TextureGenerator {
 	}
 
 	/**
-	 * Parses a well formatted texture graph as saved by TextureGraph.save
+	 * Parses a well formatted texture graph as saved by TextureGraph.save or
+	 * TextureGraphBinary.save
 	 * 
 	 * @param is
 	 * @return true if the loading produced no critical error
 	 */
 	public static boolean loadGraph(InputStream is) {
-		return graph.load(new Scanner(is));
+		boolean ret;
+		try {
+			BufferedInputStream bis = new BufferedInputStream(is);
+			bis.mark(4);
+			byte[] magic = new byte[4];
+			int n = bis.readNBytes(magic, 0, 4);
+			bis.reset();
+			if (n == 4 && TextureGraphBinary.isBinary(ByteBuffer.wrap(magic))) {
+				return loadGraph(ByteBuffer.wrap(bis.readAllBytes()));
+			}
+			ret = graph.load(new Tokenizer(new InputStreamReader(bis)));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		if (optimizeGraph)
+			TextureGraphOptimizer.optimize(graph);
+		return ret;
+	}
+
+	/**
+	 * Loads a binary texture graph as saved by TextureGraphBinary.save from b
+	 * (for example a memory mapped file).
+	 * 
+	 * @param b
+	 * @return true if the loading produced no critical error
+	 */
+	public static boolean loadGraph(ByteBuffer b) {
+		boolean ret = TextureGraphBinary.load(graph, b);
+		if (optimizeGraph)
+			TextureGraphOptimizer.optimize(graph);
+		return ret;
+	}
+
+	/**
+	 * Enables or disables the optimization of the graph after loading (see
+	 * TextureGraphOptimizer): constant parts are folded, identity nodes are
+	 * bypassed and nodes that are not needed by an export name are removed.
+	 * This does not change the generated textures but the loaded graph is
+	 * changed in place (for example nodes without an export name that no
+	 * exported node uses are removed). Default is false.
+	 * 
+	 * @param v
+	 *            used to enable/disable the optimization.
+	 */
+	public static void setOptimizeGraph(boolean v) {
+		optimizeGraph = v;
 	}
 
 	/**
@@ -68,6 +125,50 @@ public final class TextureGenerator {
 		useCache = v;
 	}
 
+	/**
+	 * Enables or disables the fast math mode when evaluating a texture. In fast
+	 * mode the transcendental functions (sin, cos, exp, pow) are computed with
+	 * float approximations (see FMath for the error bounds) which trades a
+	 * small amount of accuracy for speed. Default is false.
+	 * 
+	 * @param v
+	 *            used to enable/disable fast math.
+	 */
+	public static void setUseFastMath(boolean v) {
+		useFastMath = v;
+	}
+
+	/**
+	 * Sets the accuracy/speed trade-off of chains of per component color
+	 * adjustments (ColorCorrect without desaturate and Math1): with a size
+	 * greater than 0 they are baked into lookup tables with the given number
+	 * of entries and linear interpolation instead of computing the functions
+	 * (pow for gamma) per pixel. 0 computes the exact functions. Default is 0;
+	 * 4096 is a good trade-off.
+	 * 
+	 * @param size
+	 *            the number of table entries or 0 to disable the tables
+	 */
+	public static void setTransferLUTSize(int size) {
+		Channel.setTransferLUTSize(size);
+	}
+
+	/**
+	 * Enables or disables the compilation of the texture graph when evaluating
+	 * a texture without the cache. The point-wise nodes upstream of the
+	 * evaluated node are then compiled into a generated class with their
+	 * parameters as constants (see ChannelCompiler); all other nodes are
+	 * evaluated as before. The result is the same. This requires the system
+	 * java compiler (a JDK); without it the graph is evaluated as if the
+	 * compilation was disabled. Default is false.
+	 * 
+	 * @param v
+	 *            used to enable/disable the compilation.
+	 */
+	public static void setUseCompiler(boolean v) {
+		useCompiler = v;
+	}
+
 	/**
 	 * Sets the resolution of a single cache tile. For each node in the graph a
 	 * cache will be created. Default size is 256
@@ -135,29 +236,35 @@ public final class TextureGenerator {
 	// and figure out a way to use the cache for the library
 	private static int[] getImage_ARGB(int xres, int yres, Channel c) {
 		int[] img = new int[xres * yres];
+		boolean fastMath = FMath.setFastMath(useFastMath);
+		try {
+			if (useCache) {
+				int cxres = cacheTileResolution;
+				int cyres = cacheTileResolution;
+				int globalXres = xres;
+				int globalYres = yres;
 
-		if (useCache) {
-			int cxres = cacheTileResolution;
-			int cyres = cacheTileResolution;
-			int globalXres = xres;
-			int globalYres = yres;
-
-			for (int py = 0; py < globalYres / (cyres + 1) + 1; py++) {
-				for (int px = 0; px < globalXres / (cxres + 1) + 1; px++) {
-					TileCacheEntry e = CacheTileManager.getCache(c, px, py, cxres, cyres, globalXres, globalYres);
-					tempGetImage(img, globalXres, globalYres, e);
+				for (int py = 0; py < globalYres / (cyres + 1) + 1; py++) {
+					for (int px = 0; px < globalXres / (cxres + 1) + 1; px++) {
+						TileCacheEntry e = CacheTileManager.getCache(c, px, py, cxres, cyres, globalXres, globalYres);
+						tempGetImage(img, globalXres, globalYres, e);
+					}
 				}
-			}
-		} else { // don't use cache
-			for (int y = 0; y < yres; y++) {
-				// if (progress != null)
-				// progress.setProgress(y/(float)img.getHeight());
-				for (int x = 0; x < xres; x++) {
-					float u = (float) x / (float) xres;
-					float v = (float) y / (float) yres;
-					img[x + y * xres] = Utils.vector4ToINTColor_ARGB(c.valueRGBA(u, v));
+			} else { // don't use cache
+				c.prepareEvaluation(Channel.pixelFootprint(xres, yres));
+				CompiledChannel cc = useCompiler ? ChannelCompiler.compile(c) : null;
+				for (int y = 0; y < yres; y++) {
+					// if (progress != null)
+					// progress.setProgress(y/(float)img.getHeight());
+					for (int x = 0; x < xres; x++) {
+						float u = (float) x / (float) xres;
+						float v = (float) y / (float) yres;
+						img[x + y * xres] = Utils.vector4ToINTColor_ARGB((cc != null) ? cc.valueRGBA(u, v) : c.valueRGBA(u, v));
+					}
 				}
 			}
+		} finally {
+			FMath.setFastMath(fastMath);
 		}
 
 		return img;
@@ -166,29 +273,35 @@ public final class TextureGenerator {
 	// !!TODO: merge this with the method above
 	private static int[] getImage_ABGR(int xres, int yres, Channel c) {
 		int[] img = new int[xres * yres];
+		boolean fastMath = FMath.setFastMath(useFastMath);
+		try {
+			if (useCache) {
+				int cxres = cacheTileResolution;
+				int cyres = cacheTileResolution;
+				int globalXres = xres;
+				int globalYres = yres;
 
-		if (useCache) {
-			int cxres = cacheTileResolution;
-			int cyres = cacheTileResolution;
-			int globalXres = xres;
-			int globalYres = yres;
-
-			for (int py = 0; py < globalYres / (cyres + 1) + 1; py++) {
-				for (int px = 0; px < globalXres / (cxres + 1) + 1; px++) {
-					TileCacheEntry e = CacheTileManager.getCache(c, px, py, cxres, cyres, globalXres, globalYres);
-					tempGetImage_ABGR(img, globalXres, globalYres, e);
+				for (int py = 0; py < globalYres / (cyres + 1) + 1; py++) {
+					for (int px = 0; px < globalXres / (cxres + 1) + 1; px++) {
+						TileCacheEntry e = CacheTileManager.getCache(c, px, py, cxres, cyres, globalXres, globalYres);
+						tempGetImage_ABGR(img, globalXres, globalYres, e);
+					}
 				}
-			}
-		} else { // don't use cache
-			for (int y = 0; y < yres; y++) {
-				// if (progress != null)
-				// progress.setProgress(y/(float)img.getHeight());
-				for (int x = 0; x < xres; x++) {
-					float u = (float) x / (float) xres;
-					float v = (float) y / (float) yres;
-					img[x + y * xres] = Utils.vector4ToINTColor_ABGR(c.valueRGBA(u, v));
+			} else { // don't use cache
+				c.prepareEvaluation(Channel.pixelFootprint(xres, yres));
+				CompiledChannel cc = useCompiler ? ChannelCompiler.compile(c) : null;
+				for (int y = 0; y < yres; y++) {
+					// if (progress != null)
+					// progress.setProgress(y/(float)img.getHeight());
+					for (int x = 0; x < xres; x++) {
+						float u = (float) x / (float) xres;
+						float v = (float) y / (float) yres;
+						img[x + y * xres] = Utils.vector4ToINTColor_ABGR((cc != null) ? cc.valueRGBA(u, v) : c.valueRGBA(u, v));
+					}
 				}
 			}
+		} finally {
+			FMath.setFastMath(fastMath);
 		}
 
 		return img;
@@ -201,6 +314,7 @@ public final class TextureGenerator {
 	 */
 	public static void clearCache() {
 		CacheTileManager.clearCache();
+		ChannelCompiler.clearCache();
 	}
 
 	/**
@@ -2,13 +2,20 @@ package com.mystictri.neotexture;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Vector;
 
 import com.mystictri.neotexture.TextureGraphNode.ConnectionPoint;
 
 import engine.graphics.synthesis.texture.Channel;
 import engine.graphics.synthesis.texture.ChannelChangeListener;
+import engine.parameters.Tokenizer;
 
 /**
  * A full texture graph as created and editied by the NeoTextureEditor.
@@ -22,9 +29,23 @@ public final class TextureGraph {
 	public final Vector<TextureGraphNode> selectedNodes = new Vector<TextureGraphNode>();
 	public final Vector<TextureGraphNode> allNodes = new Vector<TextureGraphNode>();
 	public final Vector<TextureNodeConnection> allConnections = new Vector<TextureNodeConnection>();
+	
+	// the index of allConnections: the connection at each input point and
+	// the connections at each output point
+	private final HashMap<ConnectionPoint, TextureNodeConnection> inputConnections = new HashMap<ConnectionPoint, TextureNodeConnection>();
+	private final HashMap<ConnectionPoint, Vector<TextureNodeConnection>> outputConnections = new HashMap<ConnectionPoint, Vector<TextureNodeConnection>>();
+	// a topological order of allNodes (each node has a higher index than the
+	// sources of its inputs); it is updated incrementally when a connection
+	// is added and used to check for cycles (see checkForCycle)
+	private final HashMap<TextureGraphNode, Integer> topoIndex = new HashMap<TextureGraphNode, Integer>();
+	private int nextTopoIndex = 0;
+	// the spatial index of allNodes for getNodeAtPosition and getNodesInRectangle
+	private final NodeGrid grid = new NodeGrid();
 
 	public void addNode(TextureGraphNode node) {
 		allNodes.add(node);
+		topoIndex.put(node, nextTopoIndex++);
+		grid.add(node);
 	}
 
 
@@ -46,56 +67,211 @@ public final class TextureGraph {
 			w.write("#EndNodes\n");
 			// now all the connections
 			w.write("#BeginConnections " + allConnections.size()+"\n");
+			HashMap<TextureGraphNode, Integer> nodeIndices = getNodeIndices();
 			for (TextureNodeConnection c : allConnections) {
-				w.write(allNodes.indexOf(c.source.parent)+ " ");
-				w.write(allNodes.indexOf(c.target.parent)+ " ");
+				w.write(nodeIndices.get(c.source.parent)+ " ");
+				w.write(nodeIndices.get(c.target.parent)+ " ");
 				w.write(c.target.channelIndex+ "\n");
 			}
 			w.write("#EndConnections\n");
 	}
+	
+	/** The index of each node in allNodes (as used by save) */
+	HashMap<TextureGraphNode, Integer> getNodeIndices() {
+		HashMap<TextureGraphNode, Integer> ret = new HashMap<TextureGraphNode, Integer>(allNodes.size() * 2);
+		for (int i = 0; i < allNodes.size(); i++) {
+			ret.put(allNodes.get(i), i);
+		}
+		return ret;
+	}
 
 	/**
-	 * Loads (and appends) a propperly formatted texture graph from the given scanner
+	 * Loads (and appends) a propperly formatted texture graph from the given tokenizer
 	 * @param s
 	 * @return false if something failed during loading, but the test does not guarantee that
 	 *         the loaded graph was correct
 	 */
-	public boolean load(Scanner s) {
-		int offset = allNodes.size();
+	public boolean load(Tokenizer s) {
 		while (!s.next().equals("#NTEVersion")) System.out.println("ParseWarning 0 in TextureGraph.load");
 		int nteVersion = s.nextInt();
 		if (nteVersion != 6) System.err.println("WARNING: loading incompatible texture graph of version "+nteVersion); 
 		while (!s.next().equals("#BeginNodes")) System.out.println("ParseWarning A in TextureGraph.load");
+		boolean ret = true;
 		int numNodes = s.nextInt();
+		// null for the nodes that could not be loaded
+		Vector<TextureGraphNode> nodes = new Vector<TextureGraphNode>(numNodes);
 		for (int i = 0; i < numNodes; i++) {
-			TextureGraphNode n = TextureGraphNode.load(s);
-			addNode(n);
+			TextureGraphNode n = TextureGraphNode.load(s, false); // initialized by addAll
+			if (n == null) ret = false;
+			nodes.add(n);
 		}
 		while (!s.next().equals("#EndNodes")) System.out.println("ParseWarning B in TextureGraph.load");
 		while (!s.next().equals("#BeginConnections")) System.out.println("ParseWarning C in TextureGraph.load");
 		int numConnections = s.nextInt();
+		Vector<TextureNodeConnection> conns = new Vector<TextureNodeConnection>(numConnections);
 		for (int i = 0; i < numConnections; i++) {
-			TextureGraphNode.ConnectionPoint sourcePoint = allNodes.get(offset + s.nextInt()).getOutputConnectionPoint();
-			TextureGraphNode.ConnectionPoint targetPoint = allNodes.get(offset + s.nextInt()).getInputConnectionPointByChannelIndex(s.nextInt());
-			addConnection(new TextureNodeConnection(sourcePoint, targetPoint));
+			TextureGraphNode source = nodes.get(s.nextInt());
+			TextureGraphNode target = nodes.get(s.nextInt());
+			int channelIndex = s.nextInt();
+			if (source == null || target == null) continue; // a connection of a skipped node
+			TextureGraphNode.ConnectionPoint targetPoint = target.getInputConnectionPointByChannelIndex(channelIndex);
+			if (targetPoint == null) {
+				ret = false;
+				continue;
+			}
+			conns.add(new TextureNodeConnection(source.getOutputConnectionPoint(), targetPoint));
 		}
 		while (!s.next().equals("#EndConnections")) System.out.println("ParseWarning D in TextureGraph.load");
-		return true;
+		nodes.removeAll(Collections.singleton(null));
+		addAll(nodes, conns);
+		return ret;
+	}
+	
+	/**
+	 * Adds the given nodes and connections at once (as when loading a graph).
+	 * The channels of the nodes are expected to be not yet initialized (see
+	 * Channel.loadChannel): the inputs are linked without notifications, the
+	 * new part of the graph is checked once for cycles with a topological sort
+	 * and then each new channel is initialized exactly once after all its
+	 * inputs. If the connections contain a cycle they are added one by one with
+	 * addConnection which rejects the connections that close a cycle.
+	 */
+	public void addAll(List<TextureGraphNode> nodes, List<TextureNodeConnection> conns) {
+		// as in addConnection the last connection to an input point wins
+		LinkedHashMap<ConnectionPoint, TextureNodeConnection> byTarget = new LinkedHashMap<ConnectionPoint, TextureNodeConnection>();
+		for (TextureNodeConnection c : conns) {
+			byTarget.remove(c.target);
+			byTarget.put(c.target, c);
+		}
+		
+		HashSet<TextureGraphNode> newNodes = new HashSet<TextureGraphNode>(nodes);
+		Vector<TextureNodeConnection> internal = new Vector<TextureNodeConnection>();
+		Vector<TextureNodeConnection> external = new Vector<TextureNodeConnection>();
+		for (TextureNodeConnection c : byTarget.values()) {
+			if (newNodes.contains(c.source.parent) && newNodes.contains(c.target.parent)) internal.add(c);
+			else external.add(c);
+		}
+		
+		allNodes.addAll(nodes);
+		for (TextureGraphNode n : nodes) grid.add(n);
+		Vector<TextureGraphNode> order = topologicalOrder(nodes, internal);
+		for (TextureGraphNode n : (order != null) ? order : nodes) {
+			topoIndex.put(n, nextTopoIndex++);
+		}
+		if (order == null) {
+			System.out.println("WARNING: cycles not allowed!");
+			for (TextureGraphNode n : nodes) if (n.getChannel() != null) n.getChannel().parameterChanged(null);
+			for (TextureNodeConnection c : byTarget.values()) addConnection(c);
+			return;
+		}
+		
+		for (TextureNodeConnection c : internal) {
+			c.target.parent.getChannel().linkInputChannel(c.target.channelIndex, c.source.parent.getChannel());
+		}
+		// no listeners are registered yet so this does not cascade
+		for (TextureGraphNode n : order) {
+			if (n.getChannel() != null) n.getChannel().parameterChanged(null);
+		}
+		for (TextureNodeConnection c : internal) {
+			c.source.parent.getChannel().addChannelChangeListener(c);
+			indexConnection(c);
+		}
+		for (TextureNodeConnection c : external) {
+			addConnection(c);
+		}
+	}
+	
+	// the nodes ordered such that each node comes after the sources of its
+	// connections; null if the connections contain a cycle
+	private static Vector<TextureGraphNode> topologicalOrder(List<TextureGraphNode> nodes, List<TextureNodeConnection> conns) {
+		HashMap<TextureGraphNode, Integer> numInputs = new HashMap<TextureGraphNode, Integer>();
+		HashMap<TextureGraphNode, Vector<TextureGraphNode>> outputs = new HashMap<TextureGraphNode, Vector<TextureGraphNode>>();
+		for (TextureGraphNode n : nodes) {
+			numInputs.put(n, 0);
+			outputs.put(n, new Vector<TextureGraphNode>());
+		}
+		for (TextureNodeConnection c : conns) {
+			numInputs.put(c.target.parent, numInputs.get(c.target.parent) + 1);
+			outputs.get(c.source.parent).add(c.target.parent);
+		}
+		
+		Vector<TextureGraphNode> order = new Vector<TextureGraphNode>(nodes.size());
+		for (TextureGraphNode n : nodes) {
+			if (numInputs.get(n) == 0) order.add(n);
+		}
+		for (int i = 0; i < order.size(); i++) {
+			for (TextureGraphNode t : outputs.get(order.get(i))) {
+				int num = numInputs.get(t) - 1;
+				numInputs.put(t, num);
+				if (num == 0) order.add(t);
+			}
+		}
+		return (order.size() == nodes.size()) ? order : null;
 	}
 	
 	
-	public TextureGraphNode getNodeAtPosition(int x, int y) {
-		TextureGraphNode ret = null;
+	// the channels that are in an update started by beginUpdate
+	private LinkedHashSet<Channel> updateChannels = null;
+	private int updateDepth = 0;
+	
+	/**
+	 * Starts a batch of changes to the parameters and connections of all
+	 * nodes of the graph that ends with commit; the calls can be nested (see
+	 * LocalParameterManager.beginUpdate). Nodes added during the update are
+	 * not part of it.
+	 */
+	public void beginUpdate() {
+		if (updateDepth++ > 0) return;
+		updateChannels = new LinkedHashSet<Channel>();
 		for (TextureGraphNode n : allNodes) {
-			if (n.containsPoint(x, y)) ret = n;
+			if (n.getChannel() != null && updateChannels.add(n.getChannel())) n.getChannel().beginUpdate();
+		}
+	}
+	
+	/**
+	 * Ends the batch started by beginUpdate. The channels are committed in
+	 * topological order so that the change of a channel reaches the channels
+	 * downstream of it while they are still in the update; each changed
+	 * channel and each channel downstream of it is thus invalidated once.
+	 */
+	public void commit() {
+		if (updateDepth == 0) throw new IllegalStateException("commit without beginUpdate");
+		if (--updateDepth > 0) return;
+		LinkedHashSet<Channel> channels = updateChannels;
+		updateChannels = null;
+		for (TextureGraphNode n : getTopologicalOrder()) {
+			if (channels.remove(n.getChannel())) n.getChannel().commit();
 		}
+		// nodes deleted during the update
+		for (Channel c : channels) c.commit();
+	}
+	
+	/** All nodes such that each node comes after the sources of its inputs */
+	public Vector<TextureGraphNode> getTopologicalOrder() {
+		Vector<TextureGraphNode> ret = new Vector<TextureGraphNode>(allNodes);
+		ret.sort((a, b) -> Integer.compare(topoIndex.get(a), topoIndex.get(b)));
 		return ret;
 	}
 	
+	/** @return the topmost (last in allNodes) node that contains the given world position or null */
+	public TextureGraphNode getNodeAtPosition(int x, int y) {
+		return grid.getNodeAt(x, y);
+	}
+	
+	/**
+	 * @return the nodes (including their connection points) that intersect the
+	 *         given rectangle in world coordinates, in the order of allNodes
+	 */
+	public Vector<TextureGraphNode> getNodesInRectangle(int x, int y, int width, int height) {
+		return grid.getNodesIn(x, y, x + width, y + height);
+	}
+	
 	public void deleteFullGraph() {
 		removeConnections(allConnections);
 		selectedNodes.clear();
 		allNodes.clear();
+		topoIndex.clear();
+		grid.clear();
 
 	}
 	
@@ -143,18 +319,30 @@ public final class TextureGraph {
 		removeConnections(getAllConnectionsAtOutputPoint(node.getOutputConnectionPoint()));
 		removeConnections(getConnectionsAtAllInputPoints(node));
 		allNodes.remove(node);
+		topoIndex.remove(node);
+		grid.remove(node);
 		if (removeFromSelected) selectedNodes.remove(node);
 		if (graphListener != null) graphListener.nodeDeleted(node);
 	}
 	
 
 	public void deleteSelection() {
+		// all connections and nodes are removed at once so that deleting many
+		// nodes does not search allNodes and allConnections once per node
+		HashSet<TextureGraphNode> nodes = new HashSet<TextureGraphNode>(selectedNodes);
+		Vector<TextureNodeConnection> conns = new Vector<TextureNodeConnection>();
 		for (TextureGraphNode n : selectedNodes) {
-			/*removeConnections(getAllConnectionsAtOutputPoint(n.outputConnectionPoint));
-			removeConnections(getConnectionsAtAllInputPoints(n));
-			allNodes.remove(n);
-			remove(n);*/
-			_deleteNode(n, false);
+			conns.addAll(getAllConnectionsAtOutputPoint(n.getOutputConnectionPoint()));
+			for (TextureNodeConnection c : getConnectionsAtAllInputPoints(n)) {
+				if (!nodes.contains(c.source.parent)) conns.add(c); // else already added as output
+			}
+		}
+		removeConnections(conns);
+		allNodes.removeAll(nodes);
+		for (TextureGraphNode n : selectedNodes) {
+			topoIndex.remove(n);
+			grid.remove(n);
+			if (graphListener != null) graphListener.nodeDeleted(n);
 		}
 		selectedNodes.clear();
 	}
@@ -180,18 +368,34 @@ public final class TextureGraph {
 	}
 	
 	public TextureNodeConnection getConnectionAtInputPoint(TextureGraphNode.ConnectionPoint input) {
-		for (TextureNodeConnection c : allConnections) {
-			if (c.target == input) return c;
-		}
-		return null;
+		return inputConnections.get(input);
 	}
 	
 	public Vector<TextureNodeConnection> getAllConnectionsAtOutputPoint(ConnectionPoint output) {
-		Vector<TextureNodeConnection> ret = new Vector<TextureNodeConnection>();
-		for (TextureNodeConnection c : allConnections) {
-			if (c.source == output) ret.add(c);
+		Vector<TextureNodeConnection> conns = outputConnections.get(output);
+		if (conns == null) return new Vector<TextureNodeConnection>();
+		return new Vector<TextureNodeConnection>(conns);
+	}
+	
+	private void indexConnection(TextureNodeConnection c) {
+		allConnections.add(c);
+		inputConnections.put(c.target, c);
+		Vector<TextureNodeConnection> conns = outputConnections.get(c.source);
+		if (conns == null) {
+			conns = new Vector<TextureNodeConnection>(2);
+			outputConnections.put(c.source, conns);
 		}
-		return ret;
+		conns.add(c);
+	}
+	
+	// removes c from the index but not from allConnections
+	private boolean unindexConnection(TextureNodeConnection c) {
+		if (inputConnections.get(c.target) != c) return false;
+		inputConnections.remove(c.target);
+		Vector<TextureNodeConnection> conns = outputConnections.get(c.source);
+		conns.remove(c);
+		if (conns.isEmpty()) outputConnections.remove(c.source);
+		return true;
 	}
 
 	public Vector<TextureNodeConnection> getConnectionsAtAllInputPoints(TextureGraphNode node) {
@@ -205,17 +409,24 @@ public final class TextureGraph {
 	}
 	
 	public void removeConnections(Vector<TextureNodeConnection> conns) {
-		if (conns == allConnections) {
-			conns = new Vector<TextureNodeConnection>(allConnections);
+		// allConnections is searched only once for all connections
+		Vector<TextureNodeConnection> removed = new Vector<TextureNodeConnection>(conns.size());
+		for (TextureNodeConnection c : new Vector<TextureNodeConnection>(conns)) {
+			if (c == null) continue;
+			if (unindexConnection(c)) removed.add(c);
+			else System.err.println("ERROR in removeConnection: got invalid connection " + c);
 		}
-		for (int i = 0; i < conns.size(); i++) {
-			removeConnection(conns.get(i));
+		allConnections.removeAll(new HashSet<TextureNodeConnection>(removed));
+		for (TextureNodeConnection c : removed) {
+			c.source.parent.getChannel().removeChannelChangeListener(c);
+			c.target.parent.getChannel().setInputChannel(c.target.channelIndex, null);
 		}
 	}
 	
 	public void removeConnection(TextureNodeConnection c) {
 		if (c == null) return;
-		if (allConnections.remove(c)) {
+		if (unindexConnection(c)) {
+			allConnections.remove(c);
 			c.source.parent.getChannel().removeChannelChangeListener(c);
 			c.target.parent.getChannel().setInputChannel(c.target.channelIndex, null);
 		} else {
@@ -223,19 +434,64 @@ public final class TextureGraph {
 		}
 	}
 	
+	/**
+	 * Checks if a connection from source to target would close a cycle, i.e.
+	 * if the node of source can be reached from the node of target. If the
+	 * source comes first in the topological order this is not possible;
+	 * otherwise only the nodes between the two in the order are searched.
+	 */
 	public boolean checkForCycle(ConnectionPoint source, ConnectionPoint target) {
 		if (target == null) return false;
 		if (source == null) return false;
-		if (source == target.parent.getOutputConnectionPoint()) return true;
-		
-		boolean cycle = false;
+		if (source.parent == target.parent) return true;
 		
-		Vector<TextureNodeConnection> conns = getAllConnectionsAtOutputPoint(target.parent.getOutputConnectionPoint());
-		for (int i = 0; i < conns.size(); i++) {
-			cycle |= checkForCycle(source, conns.get(i).target);
+		Integer s = topoIndex.get(source.parent);
+		Integer t = topoIndex.get(target.parent);
+		if (s != null && t != null && s < t) return false;
+		return reachable(target.parent, (s != null) ? s : Integer.MAX_VALUE, true).contains(source.parent);
+	}
+	
+	// all nodes reachable from n (including n) along the connections (or
+	// against them if forward is false) whose topological index is at most
+	// (at least if not forward) bound
+	private HashSet<TextureGraphNode> reachable(TextureGraphNode n, int bound, boolean forward) {
+		HashSet<TextureGraphNode> ret = new HashSet<TextureGraphNode>();
+		Vector<TextureGraphNode> stack = new Vector<TextureGraphNode>();
+		ret.add(n);
+		stack.add(n);
+		while (!stack.isEmpty()) {
+			TextureGraphNode m = stack.remove(stack.size() - 1);
+			Vector<TextureNodeConnection> conns = forward ? outputConnections.get(m.getOutputConnectionPoint()) : getConnectionsAtAllInputPoints(m);
+			if (conns == null) continue;
+			for (TextureNodeConnection c : conns) {
+				TextureGraphNode next = forward ? c.target.parent : c.source.parent;
+				Integer idx = topoIndex.get(next);
+				if (idx != null && (forward ? idx > bound : idx < bound)) continue;
+				if (ret.add(next)) stack.add(next);
+			}
 		}
-		
-		return cycle;
+		return ret;
+	}
+	
+	// restores the topological order after a connection from source to target
+	// was added (Pearce and Kelly): the nodes between target and source in the
+	// order that depend on target are moved behind the ones source depends on
+	private void updateTopologicalOrder(TextureGraphNode source, TextureGraphNode target) {
+		Integer s = topoIndex.get(source);
+		Integer t = topoIndex.get(target);
+		if (s == null || t == null || s < t) return;
+		Vector<TextureGraphNode> before = new Vector<TextureGraphNode>(reachable(source, t, false));
+		Vector<TextureGraphNode> after = new Vector<TextureGraphNode>(reachable(target, s, true));
+		Comparator<TextureGraphNode> byIndex = (a, b) -> Integer.compare(topoIndex.get(a), topoIndex.get(b));
+		before.sort(byIndex);
+		after.sort(byIndex);
+		Vector<Integer> indices = new Vector<Integer>(before.size() + after.size());
+		for (TextureGraphNode n : before) indices.add(topoIndex.get(n));
+		for (TextureGraphNode n : after) indices.add(topoIndex.get(n));
+		indices.sort(null);
+		int i = 0;
+		for (TextureGraphNode n : before) topoIndex.put(n, indices.get(i++));
+		for (TextureGraphNode n : after) topoIndex.put(n, indices.get(i++));
 	}
 	
 	public boolean addConnection(TextureNodeConnection c) {
@@ -250,7 +506,8 @@ public final class TextureGraph {
 		
 		c.target.parent.getChannel().setInputChannel(c.target.channelIndex, c.source.parent.getChannel());
 		c.source.parent.getChannel().addChannelChangeListener(c);
-		allConnections.add(c);
+		indexConnection(c);
+		updateTopologicalOrder(c.source.parent, c.target.parent);
 		return true;
 	}
 	
@@ -282,12 +539,16 @@ public final class TextureGraph {
 			target = t;
 		}
 
-		public void channelChanged(Channel channelSource) {
+		public void channelInvalidated(Channel channelSource) {
 			if (source.parent.getChannel() != channelSource) {
 				System.err.println("ERROR in TextureNodeConnection: got change event from unexpexted Channel.");
 				return;
 			}
-			target.parent.getChannel().parameterChanged(null);
+			target.parent.getChannel().inputChanged();
+		}
+
+		// the target was already notified in channelInvalidated
+		public void channelChanged(Channel channelSource) {
 		}
 	}
 	
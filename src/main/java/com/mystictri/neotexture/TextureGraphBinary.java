@@ -0,0 +1,329 @@
+package com.mystictri.neotexture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Vector;
+
+import com.mystictri.neotexture.TextureGraph.TextureNodeConnection;
+import com.mystictri.neotextureedit.TextureEditor;
+
+import engine.graphics.synthesis.texture.Channel;
+import engine.graphics.synthesis.texture.ChannelRegistry;
+import engine.parameters.AbstractParam;
+import engine.parameters.Tokenizer;
+
+/**
+ * The binary version of the texture graph format of TextureGraph.save/load. It
+ * stores the same information but is much faster to load since no text has to
+ * be parsed:
+ *
+ * <pre>
+ * int magic ('NTEB'), int version
+ * sections: int tag, int length in bytes, content
+ *   strings:     int n, n times (int length, UTF-8 bytes)
+ *   nodes:       int n, n times (int x, int y, byte folded, int class, int numParams,
+ *                numParams times (int name, int length, param.saveBinary))
+ *   connections: int n, n times (int source node, int target node, int channel index)
+ * </pre>
+ *
+ * All class and parameter names are indices into the string table; all
+ * numbers are big endian. Unknown sections and parameters are skipped by their
+ * length so that newer files can still be loaded.
+ */
+public final class TextureGraphBinary {
+	public static final int MAGIC = 0x4E544542; // "NTEB"
+	public static final int VERSION = 1;
+
+	static final int SECTION_STRINGS = 1;
+	static final int SECTION_NODES = 2;
+	static final int SECTION_CONNECTIONS = 3;
+
+	private TextureGraphBinary() {
+	}
+
+	/** @return true if b (from its current position) starts with a binary texture graph */
+	public static boolean isBinary(ByteBuffer b) {
+		return b.remaining() >= 4 && b.getInt(b.position()) == MAGIC;
+	}
+
+	/** Saves the graph in the binary format to os */
+	public static void save(TextureGraph graph, OutputStream os) throws IOException {
+		Vector<String> strings = new Vector<String>();
+		HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+
+		ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+		DataOutputStream nodes = new DataOutputStream(nodeBytes);
+		ByteArrayOutputStream paramBytes = new ByteArrayOutputStream();
+		DataOutputStream param = new DataOutputStream(paramBytes);
+		nodes.writeInt(graph.allNodes.size());
+		for (TextureGraphNode n : graph.allNodes) {
+			Channel c = n.getChannel();
+			nodes.writeInt(n.getX());
+			nodes.writeInt(n.getY());
+			nodes.writeBoolean(n.isFolded());
+			nodes.writeInt(stringId(c.getClass().getName(), strings, stringIds));
+			nodes.writeInt(c.m_LocalParameters.size());
+			for (AbstractParam p : c.m_LocalParameters) {
+				paramBytes.reset();
+				p.saveBinary(param);
+				nodes.writeInt(stringId(p.getName(), strings, stringIds));
+				nodes.writeInt(paramBytes.size());
+				paramBytes.writeTo(nodes);
+			}
+		}
+
+		ByteArrayOutputStream connBytes = new ByteArrayOutputStream();
+		DataOutputStream conns = new DataOutputStream(connBytes);
+		conns.writeInt(graph.allConnections.size());
+		HashMap<TextureGraphNode, Integer> nodeIndices = graph.getNodeIndices();
+		for (TextureNodeConnection c : graph.allConnections) {
+			conns.writeInt(nodeIndices.get(c.source.parent));
+			conns.writeInt(nodeIndices.get(c.target.parent));
+			conns.writeInt(c.target.channelIndex);
+		}
+
+		ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+		DataOutputStream strs = new DataOutputStream(stringBytes);
+		strs.writeInt(strings.size());
+		for (String s : strings) {
+			AbstractParam.writeBinaryString(strs, s);
+		}
+
+		DataOutputStream w = new DataOutputStream(os);
+		w.writeInt(MAGIC);
+		w.writeInt(VERSION);
+		writeSection(w, SECTION_STRINGS, stringBytes);
+		writeSection(w, SECTION_NODES, nodeBytes);
+		writeSection(w, SECTION_CONNECTIONS, connBytes);
+		w.flush();
+	}
+
+	private static int stringId(String s, Vector<String> strings, HashMap<String, Integer> stringIds) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	private static void writeSection(DataOutputStream w, int tag, ByteArrayOutputStream content) throws IOException {
+		w.writeInt(tag);
+		w.writeInt(content.size());
+		content.writeTo(w);
+	}
+
+	/**
+	 * Loads (and appends) a binary texture graph from b (starting at its
+	 * current position) into graph.
+	 *
+	 * @return false if something failed during loading, but the test does not
+	 *         guarantee that the loaded graph was correct; nothing is added to
+	 *         graph if the data is truncated or corrupt
+	 */
+	public static boolean load(TextureGraph graph, ByteBuffer b) {
+		if (!isBinary(b) || b.remaining() < 8) {
+			TextureEditor.logger.error("Not a binary texture graph");
+			return false;
+		}
+		b.getInt();
+		int version = b.getInt();
+		if (version != VERSION) TextureEditor.logger.warn("Loading incompatible binary texture graph of version " + version);
+
+		boolean ret = true;
+		String[] strings = new String[0];
+		// null for the nodes that could not be loaded
+		Vector<TextureGraphNode> nodes = new Vector<TextureGraphNode>();
+		Vector<TextureNodeConnection> conns = new Vector<TextureNodeConnection>();
+		try {
+			while (b.remaining() >= 8) {
+				int tag = b.getInt();
+				int length = b.getInt();
+				if (length < 0 || length > b.remaining())
+					throw new BufferUnderflowException();
+				// each section is read from its own buffer so that it can not
+				// read into the next one
+				ByteBuffer s = b.slice();
+				s.limit(length);
+				switch (tag) {
+				case SECTION_STRINGS:
+					strings = new String[readCount(s, 4)];
+					for (int i = 0; i < strings.length; i++) {
+						strings[i] = AbstractParam.readBinaryString(s);
+					}
+					break;
+				case SECTION_NODES:
+					ret &= loadNodes(nodes, s, strings);
+					break;
+				case SECTION_CONNECTIONS:
+					ret &= loadConnections(conns, s, nodes);
+					break;
+				default:
+					TextureEditor.logger.warn("Skipping unknown section " + tag + " in binary texture graph");
+				}
+				b.position(b.position() + length);
+			}
+		} catch (RuntimeException e) {
+			// BufferUnderflowException for truncated data or an index out of
+			// bounds for corrupt data
+			TextureEditor.logger.error("Corrupt binary texture graph: " + e);
+			return false;
+		}
+		nodes.removeAll(Collections.singleton(null));
+		graph.addAll(nodes, conns);
+		return ret;
+	}
+
+	/**
+	 * Reads a number of entries that are at least entrySize bytes each so
+	 * that corrupt data can not allocate huge arrays.
+	 */
+	private static int readCount(ByteBuffer b, int entrySize) {
+		int n = b.getInt();
+		if (n < 0 || n > b.remaining() / entrySize)
+			throw new BufferUnderflowException();
+		return n;
+	}
+
+	private static boolean loadConnections(Vector<TextureNodeConnection> conns, ByteBuffer b, Vector<TextureGraphNode> nodes) {
+		boolean ret = true;
+		int numConnections = readCount(b, 12);
+		for (int i = 0; i < numConnections; i++) {
+			TextureGraphNode source = nodes.get(b.getInt());
+			TextureGraphNode target = nodes.get(b.getInt());
+			int channelIndex = b.getInt();
+			if (source == null || target == null)
+				continue;
+			TextureGraphNode.ConnectionPoint input = target.getInputConnectionPointByChannelIndex(channelIndex);
+			if (input == null) {
+				ret = false;
+				continue;
+			}
+			conns.add(new TextureNodeConnection(source.getOutputConnectionPoint(), input));
+		}
+		return ret;
+	}
+
+	// the channels are initialized later by TextureGraph.addAll
+	private static boolean loadNodes(Vector<TextureGraphNode> nodes, ByteBuffer b, String[] strings) {
+		boolean ret = true;
+		int numNodes = readCount(b, 17);
+		for (int i = 0; i < numNodes; i++) {
+			int x = b.getInt();
+			int y = b.getInt();
+			boolean isFolded = (b.get() != 0);
+			Channel c = ChannelRegistry.create(strings[b.getInt()]);
+			int numParams = readCount(b, 8);
+			AbstractParam.beginSilent();
+			try {
+				for (int j = 0; j < numParams; j++) {
+					String name = strings[b.getInt()];
+					int length = b.getInt();
+					if (length < 0 || length > b.remaining())
+						throw new BufferUnderflowException();
+					int end = b.position() + length;
+					AbstractParam param = (c != null) ? c.getParamByName(name) : null;
+					if (param != null) {
+						ByteBuffer p = b.slice();
+						p.limit(length);
+						param.loadBinary(p);
+					} else if (c != null) {
+						TextureEditor.logger.warn("Loading of param " + name + " failed");
+					}
+					b.position(end);
+				}
+			} finally {
+				AbstractParam.endSilent();
+			}
+			if (c == null) {
+				nodes.add(null);
+				ret = false;
+				continue;
+			}
+			TextureGraphNode n = new TextureGraphNode(c);
+			n.setLocation(x, y);
+			n.setFolded(isFolded);
+			nodes.add(n);
+		}
+		return ret;
+	}
+
+	/** Maps the given file into memory and loads the binary texture graph from it */
+	public static boolean load(TextureGraph graph, File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel fc = fis.getChannel();
+			return load(graph, fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Converts a texture graph file from the ascii to the binary format or
+	 * from the binary to the ascii format (depending on the format of the
+	 * input file).
+	 *
+	 * @return false if the input could not be loaded
+	 */
+	public static boolean convert(File in, File out) throws IOException {
+		TextureGraph graph = new TextureGraph();
+		boolean toAscii;
+		FileInputStream fis = new FileInputStream(in);
+		try {
+			FileChannel fc = fis.getChannel();
+			ByteBuffer b = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			toAscii = isBinary(b);
+			if (toAscii) {
+				if (!load(graph, b)) return false;
+			} else {
+				if (!graph.load(Tokenizer.open(in))) return false;
+			}
+		} finally {
+			fis.close();
+		}
+
+		if (toAscii) {
+			Writer w = new FileWriter(out);
+			try {
+				graph.save(w);
+			} finally {
+				w.close();
+			}
+		} else {
+			OutputStream os = new FileOutputStream(out);
+			try {
+				save(graph, os);
+			} finally {
+				os.close();
+			}
+		}
+		return true;
+	}
+
+	/** Command line converter: TextureGraphBinary input.tgr output.tgr */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: TextureGraphBinary <input.tgr> <output.tgr>");
+			System.out.println("Converts an ascii texture graph to the binary format and a binary one back to ascii.");
+			return;
+		}
+		if (!convert(new File(args[0]), new File(args[1]))) {
+			System.err.println("Could not load " + args[0]);
+			System.exit(1);
+		}
+	}
+}
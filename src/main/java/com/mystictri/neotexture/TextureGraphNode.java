@@ -19,12 +19,12 @@ package com.mystictri.neotexture;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
 import java.util.Vector;
 
 import com.mystictri.neotextureedit.TextureEditor;
 import com.mystictri.neotextureedit.TextureGraphEditorPanel;
 import engine.graphics.synthesis.texture.Channel;
+import engine.parameters.Tokenizer;
 
 /**
  * A TextureNode represents a Channel (Pattern or Filter) from
@@ -47,12 +47,15 @@ public final class TextureGraphNode {
 
     int posX, posY;
     boolean folded = false;
+    // the grid of the graph this node was added to; updated when the node moves
+    NodeGrid grid = null;
 
     public Vector<TextureGraphEditorPanel.MiniButton> miniButtons = new Vector<>();
 
     public void setLocation(int x, int y) {
         posX = x;
         posY = y;
+        if (grid != null) grid.update(this);
     }
 
     public int getWidth() {
@@ -78,6 +81,7 @@ public final class TextureGraphNode {
 
     public void setFolded(boolean f) {
         folded = f;
+        if (grid != null) grid.update(this);
     }
 
     public Channel getChannel() {
@@ -87,6 +91,7 @@ public final class TextureGraphNode {
     public void movePosition(int dx, int dy) {
         posX += dx;
         posY += dy;
+        if (grid != null) grid.update(this);
     }
 
     // saves only the node; not the Connection!!
@@ -95,14 +100,25 @@ public final class TextureGraphNode {
         Channel.saveChannel(w, texChannel);
     }
 
-    public static TextureGraphNode load(Scanner s) {
+    public static TextureGraphNode load(Tokenizer s) {
+        return load(s, true);
+    }
+
+    /**
+     * @param initialize see Channel.loadChannel
+     * @return null if the channel could not be loaded (its data is skipped)
+     */
+    public static TextureGraphNode load(Tokenizer s, boolean initialize) {
         int x = s.nextInt();
         int y = s.nextInt();
         boolean isFolded = false;
         if (s.hasNextInt()) { // this check is needed to be compatible to files savec in version 0.6.3 and earlier (where no folding existed)
             isFolded = (s.nextInt() == 1);
         }
-        TextureGraphNode ret = new TextureGraphNode(Channel.loadChannel(s));
+        Channel c = Channel.loadChannel(s, initialize);
+        if (c == null)
+            return null;
+        TextureGraphNode ret = new TextureGraphNode(c);
         ret.setLocation(x, y);
         ret.setFolded(isFolded);
         return ret;
@@ -0,0 +1,204 @@
+package com.mystictri.neotexture;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import com.mystictri.neotexture.TextureGraph.TextureNodeConnection;
+
+import engine.base.Vector4;
+import engine.graphics.synthesis.texture.Channel;
+import engine.graphics.synthesis.texture.PatternConstantColor;
+import engine.parameters.AbstractParam;
+
+/**
+ * Simplifies a texture graph before it is evaluated without changing the
+ * output of the nodes that are marked for export:
+ * uniform nodes (see Channel.isUniform) are replaced by a constant color,
+ * nodes that pass an input through unchanged (see Channel.getIdentityInput)
+ * are bypassed, structurally identical nodes are merged and finally all nodes
+ * that no exported node depends on are removed. The graph is changed in
+ * place so this should only be used on graphs that are not edited
+ * afterwards.
+ */
+public final class TextureGraphOptimizer {
+
+	private TextureGraphOptimizer() {
+	}
+
+	/**
+	 * Optimizes the given graph in place.
+	 *
+	 * @return the number of nodes removed from the graph
+	 */
+	public static int optimize(TextureGraph graph) {
+		int numNodes = graph.allNodes.size();
+		// the rewiring invalidates each remaining node only once
+		graph.beginUpdate();
+		try {
+			foldUniformNodes(graph);
+			bypassIdentityNodes(graph);
+			mergeIdenticalNodes(graph);
+			removeUnexportedNodes(graph);
+		} finally {
+			graph.commit();
+		}
+		return numNodes - graph.allNodes.size();
+	}
+
+	// replaces the uniform nodes that are exported or used by a non uniform
+	// node by a constant color; the nodes upstream of them are removed later
+	static void foldUniformNodes(TextureGraph graph) {
+		HashSet<TextureGraphNode> uniform = uniformNodes(graph);
+		Vector<TextureGraphNode> fold = new Vector<TextureGraphNode>();
+		for (TextureGraphNode n : graph.allNodes) {
+			Channel c = n.getChannel();
+			if (c instanceof PatternConstantColor || !uniform.contains(n))
+				continue;
+			boolean needed = c.isMarkedForExport();
+			for (TextureNodeConnection conn : graph.getAllConnectionsAtOutputPoint(n.getOutputConnectionPoint())) {
+				needed |= !uniform.contains(conn.target.parent);
+			}
+			if (needed)
+				fold.add(n);
+		}
+
+		for (TextureGraphNode n : fold) {
+			Channel c = n.getChannel();
+			Vector4 val = c.valueRGBA(0.0f, 0.0f);
+			if (val.w != 1.0f)
+				continue; // the constant color has no alpha
+			PatternConstantColor constant = new PatternConstantColor(val.x, val.y, val.z);
+			constant.exportName.set(c.exportName.get());
+			graph.replaceNode(n, new TextureGraphNode(constant));
+		}
+	}
+
+	// the nodes whose channel is uniform (see Channel.isUniform); computed in
+	// topological order instead of recursively
+	static HashSet<TextureGraphNode> uniformNodes(TextureGraph graph) {
+		HashSet<TextureGraphNode> uniform = new HashSet<TextureGraphNode>();
+		for (TextureGraphNode n : graph.getTopologicalOrder()) {
+			Channel c = n.getChannel();
+			boolean u = c.isUniformIfInputsAre();
+			for (int i = 0; u && i < c.getNumInputChannels(); i++) {
+				TextureNodeConnection conn = graph.getConnectionAtInputPoint(n.getInputConnectionPointByChannelIndex(i));
+				u = conn != null && uniform.contains(conn.source.parent);
+			}
+			if (u)
+				uniform.add(n);
+		}
+		return uniform;
+	}
+
+	// connects the users of an identity node directly to its input
+	static void bypassIdentityNodes(TextureGraph graph) {
+		for (TextureGraphNode n : graph.allNodes) {
+			int idx = n.getChannel().getIdentityInput();
+			if (idx < 0)
+				continue;
+			TextureNodeConnection input = graph.getConnectionAtInputPoint(n.getInputConnectionPointByChannelIndex(idx));
+			if (input == null)
+				continue;
+			redirectOutputs(graph, n, input.source.parent);
+		}
+	}
+
+	// connects the users of nodes that compute the same as an other node (same
+	// class, parameters and inputs) to this node; the duplicates are removed
+	// later unless they are exported
+	static void mergeIdenticalNodes(TextureGraph graph) {
+		HashMap<TextureGraphNode, Integer> ids = new HashMap<TextureGraphNode, Integer>();
+		HashMap<String, Integer> keyIds = new HashMap<String, Integer>();
+		HashMap<Integer, TextureGraphNode> canonical = new HashMap<Integer, TextureGraphNode>();
+
+		// the inputs of a node get their id before the node itself
+		for (TextureGraphNode n : graph.getTopologicalOrder()) {
+			Integer id = structuralId(graph, n, ids, keyIds);
+			TextureGraphNode c = canonical.get(id);
+			if (c == null) {
+				canonical.put(id, n);
+			} else if (n.getChannel().isMarkedForExport() && !c.getChannel().isMarkedForExport()) {
+				redirectOutputs(graph, c, n); // keep the exported node
+				canonical.put(id, n);
+			} else {
+				redirectOutputs(graph, n, c);
+			}
+		}
+	}
+
+	// the same id is returned for all nodes with the same structural key: the
+	// class, the parameters (without the export name) and the ids of the
+	// inputs; the ids of the inputs have to be known already
+	private static Integer structuralId(TextureGraph graph, TextureGraphNode n, HashMap<TextureGraphNode, Integer> ids, HashMap<String, Integer> keyIds) {
+		Channel c = n.getChannel();
+		StringWriter key = new StringWriter();
+		key.write(c.getClass().getName());
+		try {
+			for (AbstractParam param : c.m_LocalParameters) {
+				if (param == c.exportName)
+					continue;
+				key.write(" " + param.getName() + " ");
+				param.save(key);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (int i = 0; i < c.getNumInputChannels(); i++) {
+			TextureNodeConnection conn = graph.getConnectionAtInputPoint(n.getInputConnectionPointByChannelIndex(i));
+			key.write(" in" + i + " " + ((conn == null) ? "-" : ids.get(conn.source.parent)));
+		}
+
+		Integer id = keyIds.get(key.toString());
+		if (id == null) {
+			id = keyIds.size();
+			keyIds.put(key.toString(), id);
+		}
+		ids.put(n, id);
+		return id;
+	}
+
+	// connects all users of the output of from to the output of to
+	private static void redirectOutputs(TextureGraph graph, TextureGraphNode from, TextureGraphNode to) {
+		for (TextureNodeConnection conn : graph.getAllConnectionsAtOutputPoint(from.getOutputConnectionPoint())) {
+			graph.removeConnection(conn);
+			conn.source = to.getOutputConnectionPoint();
+			graph.addConnection(conn);
+		}
+	}
+
+	// removes all nodes that are not (indirectly) used by an exported node
+	static void removeUnexportedNodes(TextureGraph graph) {
+		HashSet<TextureGraphNode> used = new HashSet<TextureGraphNode>();
+		for (TextureGraphNode n : graph.allNodes) {
+			if (n.getChannel().isMarkedForExport())
+				markUsed(graph, n, used);
+		}
+
+		Vector<TextureGraphNode> unused = new Vector<TextureGraphNode>();
+		for (TextureGraphNode n : graph.allNodes) {
+			if (!used.contains(n))
+				unused.add(n);
+		}
+		for (TextureGraphNode n : unused) {
+			graph._deleteNode(n, true);
+		}
+	}
+
+	// adds n and all nodes upstream of it to used
+	private static void markUsed(TextureGraph graph, TextureGraphNode n, HashSet<TextureGraphNode> used) {
+		ArrayDeque<TextureGraphNode> stack = new ArrayDeque<TextureGraphNode>();
+		stack.push(n);
+		while (!stack.isEmpty()) {
+			TextureGraphNode m = stack.pop();
+			if (!used.add(m))
+				continue;
+			for (TextureNodeConnection conn : graph.getConnectionsAtAllInputPoints(m)) {
+				stack.push(conn.source.parent);
+			}
+		}
+	}
+}
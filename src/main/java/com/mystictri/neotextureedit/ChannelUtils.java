@@ -18,6 +18,9 @@ import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
 public final class ChannelUtils {
 	public static boolean useCache = true;
 	
+	// if true image exports are computed with FMath in fast (approximate) math mode
+	public static boolean useFastMathForExport = false;
+	
 	
 	public static final int minCacheSize = 64;
 
@@ -54,6 +57,7 @@ public final class ChannelUtils {
 			progress.startProgress();
 		long time = System.currentTimeMillis();
 
+		c.prepareEvaluation(Channel.pixelFootprint(globalXres, globalYres));
 		TileCacheEntry tce = null;
 		if (useCache && (img.getWidth() >= minCacheSize && img.getHeight() >= minCacheSize)) {
 			 tce = CacheTileManager.getCache(c, px, py, img.getWidth(), img.getHeight(), globalXres, globalYres);
@@ -8,7 +8,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
@@ -35,6 +34,7 @@ import engine.parameters.InfoParam;
 import engine.parameters.IntParam;
 import engine.parameters.Matrix3x3Param;
 import engine.parameters.TextParam;
+import engine.parameters.Tokenizer;
 
 
 /**
@@ -213,7 +213,7 @@ public class OpenGLPreviewPanel extends JPanel implements ChannelChangeListener,
 		w.write("endglpreview\n");
 	}
 	
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		resetPreview();
 		if (!s.hasNext()) return;
 		s.next(); // glpreview
@@ -40,7 +40,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.Scanner;
 import java.util.Vector;
 import java.util.prefs.Preferences;
 
@@ -75,11 +74,15 @@ import apple.dts.samplecode.osxadapter.OSXAdapter;
 import com.bulenkov.darcula.DarculaLaf;
 import com.mystictri.neotexture.TextureGenerator;
 import com.mystictri.neotexture.TextureGraphNode;
+import com.mystictri.neotexture.TextureGraphOptimizer;
 
+import engine.base.FMath;
 import engine.graphics.synthesis.texture.Channel;
+import engine.graphics.synthesis.texture.ChannelRegistry;
 import engine.graphics.synthesis.texture.Pattern;
 import engine.graphics.synthesis.texture.PatternChecker;
 import engine.graphics.synthesis.texture.ProgressBarInterface;
+import engine.parameters.Tokenizer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -182,53 +185,12 @@ public class TextureEditor implements ActionListener, KeyListener {
 	// + "Send comments, suggestions, bugs to holger.dammertz@googlemail.com";
 
 	private void tempTest_FindAllPatternsAndChannelClasses() {
-		String packName = Channel.class.getPackage().getName();
-		String[] files = null;
-		/*
-		 * String dir = "/" + packName.replace('.', '/'); try { URL url =
-		 * Channel.class.getResource(dir); if (url != null) { File f = new
-		 * File(url.toURI()); files = f.list(); } else
-		 */{
-			// System.err.println("WARNING: automatic loading of patterns/channels failed; adding hardcoded set");
-			String[] f = { "FilterBlend.class", "FilterColorCorrect.class", "FilterColorize.class", "FilterEmboss.class", "FilterMask.class",
-					"FilterNormalMap.class", "FilterWarp.class", "Pattern.class", "PatternBrick.class", "PatternCellular.class",
-					"PatternChecker.class", "PatternConstantColor.class", "PatternGradient.class", "PatternPerlinNoise.class",
-					"PatternTile.class", "PatternFunction.class", "PatternBitmap.class", "FilterIlluminate.class", "FilterCombine.class",
-					"FilterTransform.class", "FilterBlur.class", "FilterModulus.class", "FilterMath1.class" };
-			files = f;
+		for (Class<? extends Channel> c : ChannelRegistry.getListedClasses()) {
+			if (Pattern.class.isAssignableFrom(c))
+				allPatterns.add(c);
+			else
+				allChannels.add(c);
 		}
-
-		for (int i = 0; i < files.length; i++) {
-			if (files[i].endsWith(".class")) {
-				String className = files[i].substring(0, files[i].length() - 6);
-				try {
-					Class<?> c = Class.forName(packName + "." + className);
-					Object o = c.newInstance();
-					if (o instanceof Pattern) {
-						if (c != Pattern.class)
-							allPatterns.add(c);
-					} else if (o instanceof Channel)
-						allChannels.add(c);
-
-					// output of loaded classes for easy copy-paste for jar
-					// version
-					// if (url != null)
-					// System.out.print("\"" + files[i] + "\",");
-
-				} catch (ClassNotFoundException e) {
-					e.printStackTrace();
-				} catch (InstantiationException e) {
-					// e.printStackTrace(); // happens because of possible
-					// abstract classes or interfaces
-				} catch (IllegalAccessException e) {
-					// e.printStackTrace(); also happens
-				}
-			}
-			// Class.forName()
-		}
-		/*
-		 * } catch (URISyntaxException e) { e.printStackTrace(); }
-		 */
 	}
 
 	/**
@@ -315,11 +277,11 @@ public class TextureEditor implements ActionListener, KeyListener {
 
 		/**
 		 * Loads a list presets from the NTEPresetString variable using a
-		 * scanner. For each preset the addPatternPreset method is called.
+		 * tokenizer. For each preset the addPatternPreset method is called.
 		 */
 		void loadPresets() {
 			try {
-				Scanner s = new Scanner(NTEPresetString);
+				Tokenizer s = new Tokenizer(NTEPresetString);
 				int numNodes = s.nextInt();
 				for (int i = 0; i < numNodes; i++) {
 					Channel c = Channel.loadChannel(s);
@@ -621,6 +583,7 @@ public class TextureEditor implements ActionListener, KeyListener {
 		options.setMnemonic('O');
 		m_MainMenuBar.add(options);
 		createCheckboxMenuItem(options, "Use Cache", "options_toggle_usecache", 'C', null);
+		createCheckboxMenuItem(options, "Fast Math for Export", "options_toggle_fastmathexport", 'F', null).setSelected(ChannelUtils.useFastMathForExport);
 
 		JMenu help = new JMenu("Help");
 		help.setMnemonic('H');
@@ -696,6 +659,8 @@ public class TextureEditor implements ActionListener, KeyListener {
 		} else if (c.equals("options_toggle_usecache")) {
 			ChannelUtils.useCache = !ChannelUtils.useCache;
 
+		} else if (c.equals("options_toggle_fastmathexport")) {
+			ChannelUtils.useFastMathForExport = !ChannelUtils.useFastMathForExport;
 		} else if (c.equals("help_dialog")) {
 			JOptionPane.showMessageDialog(null, help_message, "NeoTextureEdit - Help", JOptionPane.PLAIN_MESSAGE);
 		} else if (c.equals("about_dialog")) {
@@ -716,6 +681,7 @@ public class TextureEditor implements ActionListener, KeyListener {
 		int exportResY = 512;
 		boolean exportOnly = false;
 		boolean useOpenGL = true;
+		boolean useFastMath = false;
 
 		void parse(String[] args) {
 			for (int i = 0; i < args.length; i++) {
@@ -740,6 +706,8 @@ public class TextureEditor implements ActionListener, KeyListener {
 					}
 				} else if (a.equalsIgnoreCase("--disableGL")) {
 					useOpenGL = false;
+				} else if (a.equalsIgnoreCase("--fastmath")) {
+					useFastMath = true;
 				} else if (a.equalsIgnoreCase("--help") || a.equalsIgnoreCase("-h")) {
 					System.out.println("\nNeoTextureEdit " + "Version: " + programVersionNumber + " "
 							+ "(c) Copyright Holger Dammertz 2010. All rights reserved.\n");
@@ -750,6 +718,7 @@ public class TextureEditor implements ActionListener, KeyListener {
 					System.out.println("    -r  128x128               set the output resolution for the export");
 					System.out.println("    -p path                   set the path for export");
 					System.out.println("    --disableGL               disable the use of the OpenGL preview");
+					System.out.println("    --fastmath                export using faster but approximate math functions");
 					System.out.println("\nContact and bug reports at http://sourceforge.net/projects/neotextureedit");
 					System.exit(0);
 				}
@@ -792,10 +761,12 @@ public class TextureEditor implements ActionListener, KeyListener {
 		}
 
 		ChannelUtils.useCache = false;
+		FMath.setFastMath(commandLineOptions.useFastMath);
 
 		for (String filename : commandLineOptions.allFileNames) {
 			TextureGraphEditorPanel te = new TextureGraphEditorPanel();
 			te.load(filename, true);
+			TextureGraphOptimizer.optimize(te.graph);
 
 			for (TextureGraphNode n : te.graph.getAllNodes()) {
 				if (n.getChannel().isMarkedForExport()) {
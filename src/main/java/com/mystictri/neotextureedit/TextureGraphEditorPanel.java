@@ -26,6 +26,7 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.dnd.DropTarget;
 import java.awt.dnd.DropTargetAdapter;
@@ -46,9 +47,9 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.InputMismatchException;
-import java.util.Scanner;
 import java.util.TooManyListenersException;
 import java.util.Vector;
 import java.util.function.Function;
@@ -68,11 +69,14 @@ import com.mystictri.neotexture.TextureGraphListener;
 import com.mystictri.neotexture.TextureGraphNode;
 import com.mystictri.neotexture.TextureGraphNode.ConnectionPoint;
 
+import engine.base.FMath;
 import engine.graphics.synthesis.texture.CacheTileManager;
 import engine.graphics.synthesis.texture.Channel;
 import engine.graphics.synthesis.texture.Channel.ChannelVizType;
 import engine.graphics.synthesis.texture.ChannelChangeListener;
+import engine.graphics.synthesis.texture.ChannelRegistry;
 import engine.graphics.synthesis.texture.Pattern;
+import engine.parameters.Tokenizer;
 
 /**
  * This is the main texture graph editing panel that is used to create and modify
@@ -105,10 +109,14 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
     private boolean nodeDragging = false;
     private boolean desktopDragging = false;
     private boolean connectionDragging = false;
+    private boolean selectionDragging = false;
     private PreviewWindow draggedWindow = null;
     private TextureGraphNode.ConnectionPoint connectionSource = null;
     private Point connectionOrigin;
     private Point connectionTarget;
+    // the corners of the selection rectangle in world coordinates
+    private Point selectionOrigin;
+    private Point selectionTarget;
 
     private Point mousePosition = new Point();
 
@@ -311,13 +319,7 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
     private CreateMenuItem createMenuItem_CreateFilter(String name, Class<?> c, boolean genIcon, boolean replace) {
         CreateMenuItem ret;
         if (genIcon) {
-            Channel chan = null;
-            try {
-                chan = (Channel) c.getDeclaredConstructor().newInstance();
-            }
-            catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-                e.printStackTrace();
-            }
+            Channel chan = ChannelRegistry.create(c.getName());
             ret = new CreateMenuItem(name, new ImageIcon(ChannelUtils.createAndComputeImage(chan, 16, 16, null, 0)), replace);
         }
         else
@@ -334,6 +336,7 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
             if (!name.endsWith(".png"))
                 name += ".png";
             boolean useCache = ChannelUtils.useCache;
+            boolean fastMath = FMath.setFastMath(ChannelUtils.useFastMathForExport);
             try {
                 ChannelUtils.useCache = false;
                 ImageIO.write(ChannelUtils.createAndComputeImage(graph.selectedNodes.lastElement().getChannel(), resX, resY, TextureEditor.INSTANCE.m_ProgressDialog, 3), "png", new File(name));
@@ -343,7 +346,10 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
                 exc.printStackTrace();
                 TextureEditor.logger.error("IO Exception while exporting image: " + exc);
             }
-            ChannelUtils.useCache = useCache;
+            finally {
+                ChannelUtils.useCache = useCache;
+                FMath.setFastMath(fastMath);
+            }
         }
     }
 
@@ -363,27 +369,22 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
         if (e.getSource().getClass() == CreateMenuItem.class) { // this was one menu item from the create new channel menu
             CreateMenuItem mi = (CreateMenuItem) e.getSource();
 
-            try {
-                if (!mi.isAReplaceCall) { // insert a new Node
-                    Channel chan = (Channel) mi.classType.getDeclaredConstructor().newInstance();
-                    addTextureNode(new TextureGraphNode(chan), mousePosition.x - desktopX, mousePosition.y - desktopY);
+            if (!mi.isAReplaceCall) { // insert a new Node
+                Channel chan = ChannelRegistry.create(mi.classType.getName());
+                addTextureNode(new TextureGraphNode(chan), mousePosition.x - desktopX, mousePosition.y - desktopY);
+                repaint();
+            }
+            else { // try to replace an existing node as good as possible
+                TextureGraphNode node = graph.selectedNodes.get(0);
+                if (node != null) {
+                    TextureGraphNode newNode = new TextureGraphNode(ChannelRegistry.create(mi.classType.getName()));
+                    replaceTextureNode(node, newNode);
                     repaint();
                 }
-                else { // try to replace an existing node as good as possible
-                    TextureGraphNode node = graph.selectedNodes.get(0);
-                    if (node != null) {
-                        TextureGraphNode newNode = new TextureGraphNode((Channel) mi.classType.getDeclaredConstructor().newInstance());
-                        replaceTextureNode(node, newNode);
-                        repaint();
-                    }
-                    else {
-                        TextureEditor.logger.warn("No node selected for replace");
-                    }
+                else {
+                    TextureEditor.logger.warn("No node selected for replace");
                 }
             }
-            catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                e1.printStackTrace();
-            }
         }
         else if (e.getSource() == newChannelInsertMenuItem) {
             if (toCopyTextureGraphNode == null) {
@@ -538,6 +539,11 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
         return graph.selectedNodes.contains(node);
     }
 
+    private Rectangle getSelectionRectangle() {
+        return new Rectangle(Math.min(selectionOrigin.x, selectionTarget.x), Math.min(selectionOrigin.y, selectionTarget.y),
+                Math.abs(selectionTarget.x - selectionOrigin.x), Math.abs(selectionTarget.y - selectionOrigin.y));
+    }
+
     void deleteFullGraph() {
         paramEditorPanel.setTextureNode(null);
         removeAllPreviewWindows();
@@ -563,7 +569,7 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
 
     public boolean load(String filename, boolean eraseOld) {
         try {
-            Scanner s = new Scanner(new BufferedReader(new FileReader(filename)));
+            Tokenizer s = new Tokenizer(new BufferedReader(new FileReader(filename)));
             if (eraseOld) deleteFullGraph();
 
             graph.load(s);
@@ -596,20 +602,55 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
 
     // utility method to draw a conneciton line.
     private static void drawConnectionLine(Graphics2D g, int x0, int y0, int x1, int y1) {
-        int offset = 6;
+        g.draw(createConnectionPath(x0, y0, x1, y1));
+    }
 
-        g.drawLine(x0, y0, x0 - offset, y0);
-        // g.drawLine(x0, y0 - offset, x1, y1 + offset);
-        g.drawLine(x1 + offset, y1, x1, y1);
+    private static GeneralPath createConnectionPath(int x0, int y0, int x1, int y1) {
+        int offset = 6;
 
         var path = new GeneralPath();
-        path.moveTo(x0 - offset, y0);
+        path.moveTo(x0, y0);
+        path.lineTo(x0 - offset, y0);
         path.curveTo(x0 - offset - 5, y0 + 15, x1 + offset - 5, y1 - 40, x1 + offset, y1);
-        g.draw(path);
+        path.lineTo(x1, y1);
 
         // Draw the control points
         // g.drawOval(x0 - 5, y0 - 40, 15, 15);
         // g.drawOval(x1 - 5, y1 + 15, 15, 15);
+        return path;
+    }
+
+    // the curve of a connection in world coordinates; it is cached until one
+    // of its end points moves
+    private static final class ConnectionCurve {
+        final int x0, y0, x1, y1;
+        final GeneralPath path;
+        final Rectangle bounds;
+
+        ConnectionCurve(int x0, int y0, int x1, int y1) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            path = createConnectionPath(x0, y0, x1, y1);
+            bounds = path.getBounds();
+            bounds.grow(2, 2); // the stroke width
+        }
+    }
+
+    private final HashMap<TextureNodeConnection, ConnectionCurve> connectionCurves = new HashMap<>();
+
+    private ConnectionCurve getConnectionCurve(TextureNodeConnection c) {
+        int x0 = c.target.getWorldSpaceX();
+        int y0 = c.target.getWorldSpaceY();
+        int x1 = c.source.getWorldSpaceX();
+        int y1 = c.source.getWorldSpaceY();
+        ConnectionCurve curve = connectionCurves.get(c);
+        if (curve == null || curve.x0 != x0 || curve.y0 != y0 || curve.x1 != x1 || curve.y1 != y1) {
+            curve = new ConnectionCurve(x0, y0, x1, y1);
+            connectionCurves.put(c, curve);
+        }
+        return curve;
     }
 	
 	/*
@@ -765,21 +806,31 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
             g.drawLine(x, 0, x, h);
         }
 
+        // only the connections and nodes in the visible part of the desktop are drawn
+        Rectangle view = new Rectangle(-desktopX, -desktopY, w, h);
+
         // draw the connection lines
         g.setColor(Color.white);
         g.setStroke(connectionLineStroke);
+        if (connectionCurves.size() > graph.allConnections.size()) {
+            connectionCurves.keySet().retainAll(new HashSet<>(graph.allConnections));
+        }
+        g.translate(desktopX, desktopY);
         for (TextureNodeConnection c : graph.allConnections) {
-            drawConnectionLine(g, desktopX + c.target.getWorldSpaceX(), desktopY + c.target.getWorldSpaceY(), desktopX + c.source.getWorldSpaceX(), desktopY + c.source.getWorldSpaceY());
+            ConnectionCurve curve = getConnectionCurve(c);
+            if (curve.bounds.intersects(view)) g.draw(curve.path);
         }
+        g.translate(-desktopX, -desktopY);
 
         g.setColor(col_NodeSelected);
         for (TextureGraphNode n : graph.selectedNodes) {
             //Rectangle r = new n.getBounds();
-            g.fillRect(desktopX + n.getX() - 1, desktopY + n.getY() - 1, n.getWidth() + 2, n.getHeight() + 2);
+            if (view.intersects(n.getX() - 1, n.getY() - 1, n.getWidth() + 2, n.getHeight() + 2))
+                g.fillRect(desktopX + n.getX() - 1, desktopY + n.getY() - 1, n.getWidth() + 2, n.getHeight() + 2);
         }
 
         g.setColor(Color.blue);
-        for (TextureGraphNode n : graph.allNodes) {
+        for (TextureGraphNode n : graph.getNodesInRectangle(view.x, view.y, view.width, view.height)) {
             //Rectangle r = new n.getBounds();
             //g.drawRect(n.getX(), n.getY(), n.width, n.height);
             drawNode(g, n);
@@ -794,6 +845,12 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
             drawConnectionLine(g, connectionTarget.x, connectionTarget.y, desktopX + connectionOrigin.x, desktopY + connectionOrigin.y);
         }
 
+        if (selectionDragging) {
+            Rectangle r = getSelectionRectangle();
+            g.setColor(col_NodeSelected);
+            g.drawRect(desktopX + r.x, desktopY + r.y, r.width, r.height);
+        }
+
         for (int i = previewWindows.size() - 1; i >= 0; i--) {
             previewWindows.get(i).draw(g);
         }
@@ -869,6 +926,11 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
             connectionTarget.y = (int) (e.getY() * zoom);
             repaint();
         }
+        else if (selectionDragging) {
+            selectionTarget.x = (int) (e.getX() * zoom) - desktopX;
+            selectionTarget.y = (int) (e.getY() * zoom) - desktopY;
+            repaint();
+        }
         else if (draggedWindow != null) {
             int dx = (int) ((e.getXOnScreen()) - dragStartX / zoom);
             int dy = (int) ((e.getYOnScreen()) - dragStartY / zoom);
@@ -1002,8 +1064,11 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
             else if (e.getButton() == 3) {
                 showNewChannelPopupMenu(e.getComponent(), e.getX(), e.getY());
             }
-            else {
-                setSelectedNode(null);
+            else { // selecting all nodes in a rectangle; shift adds them to the selection
+                if (!e.isShiftDown()) setSelectedNode(null);
+                selectionDragging = true;
+                selectionOrigin = new Point(wsX, wsY);
+                selectionTarget = new Point(wsX, wsY);
             }
         }
 
@@ -1043,8 +1108,20 @@ public final class TextureGraphEditorPanel extends JPanel implements MouseListen
             }
         }
 
+        if (selectionDragging) {
+            Rectangle r = getSelectionRectangle();
+            HashSet<TextureGraphNode> selected = new HashSet<>(graph.selectedNodes);
+            for (TextureGraphNode n : graph.getNodesInRectangle(r.x, r.y, r.width, r.height)) {
+                if (selected.add(n)) graph.selectedNodes.add(n);
+            }
+            // show the parameters of the last selected node (or none)
+            TextureGraphNode last = graph.selectedNodes.isEmpty() ? null : graph.selectedNodes.lastElement();
+            if (paramEditorPanel.getActiveTextureNode() != last) paramEditorPanel.setTextureNode(last);
+        }
+
         nodeDragging = false;
         connectionDragging = false;
+        selectionDragging = false;
         desktopDragging = false;
         draggedWindow = null;
 
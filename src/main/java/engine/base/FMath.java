@@ -17,16 +17,31 @@
 
 package engine.base;
 
-import java.util.Random;
-
 /**
- * Float Math. Currently a wrapper around Math to return float values
+ * Float Math. Currently a wrapper around Math to return float values.
+ * 
+ * The sin, cos, exp and pow variants with a fast argument compute
+ * float-only polynomial approximations instead of java.lang.Math if it is
+ * true; the maximum errors are given at the fast* methods. The mode is
+ * selected per thread with setFastMath and read once per evaluation (see
+ * Channel.prepareEvaluation) so that the per pixel code does not look it up.
+ * sqrt is always exact since it maps to a single hardware instruction.
  * @author Holger Dammertz
  *
  */
 public final class FMath {
 	public static final float PI = 3.1415926535897932384626f;
-	static Random rnd = new Random();
+	
+	private static final float HALF_PI = PI * 0.5f;
+	private static final float TWO_PI = PI * 2.0f;
+	private static final float INV_TWO_PI = 1.0f / TWO_PI;
+	private static final float LOG2E = 1.442695040888963f;
+	
+	// the fast math mode of the calling thread (see setFastMath)
+	private static final ThreadLocal<boolean[]> fastMath = ThreadLocal.withInitial(() -> new boolean[1]);
+	// every thread has its own generator so that concurrent callers neither race nor block;
+	// code that needs reproducible results should use its own FRandom instance instead
+	static final ThreadLocal<FRandom> rnd = ThreadLocal.withInitial(() -> new FRandom(System.nanoTime()));
 
 	public static final float sqrt(float a) {
 		return (float)Math.sqrt(a);
@@ -36,14 +51,26 @@ public final class FMath {
 		return (float)Math.sin(a);
 	}
 	
+	public static final float sin(float a, boolean fast) {
+		return fast ? fastSin(a) : (float)Math.sin(a);
+	}
+	
 	public static final float exp(float a) {
 		return (float)Math.exp(a);
 	}
 
+	public static final float exp(float a, boolean fast) {
+		return fast ? fastExp(a) : (float)Math.exp(a);
+	}
+
 	public static final float cos(float a) {
 		return (float)Math.cos(a);
 	}
 	
+	public static final float cos(float a, boolean fast) {
+		return fast ? fastCos(a) : (float)Math.cos(a);
+	}
+	
 	public static final float acos(float a) {
 		return (float)Math.acos(a);
 	}
@@ -60,6 +87,99 @@ public final class FMath {
 		return (float)Math.pow(a, b);
 	}
 	
+	public static final float pow(float a, float b, boolean fast) {
+		return fast ? fastPow(a, b) : (float)Math.pow(a, b);
+	}
+	
+	/**
+	 * Enables or disables the fast (approximate) math mode of the channels
+	 * evaluated by the calling thread; other threads are not affected.
+	 * 
+	 * @return the previous mode so that callers can restore it in a finally
+	 *         block
+	 */
+	public static boolean setFastMath(boolean fast) {
+		final boolean[] mode = fastMath.get();
+		final boolean old = mode[0];
+		mode[0] = fast;
+		return old;
+	}
+	
+	public static boolean isFastMath() {
+		return fastMath.get()[0];
+	}
+	
+	/**
+	 * Polynomial approximation of sin. Max. absolute error is 4e-6 for
+	 * |a| <= 32*PI and 1.5e-5 for |a| <= 256 (the range reduction is done in
+	 * float so the error grows with the ulp of a).
+	 */
+	public static final float fastSin(float a) {
+		// reduce to [-PI, PI] and then to [-PI/2, PI/2]
+		float x = a - TWO_PI * (float)Math.round(a * INV_TWO_PI);
+		if (x > HALF_PI) x = PI - x;
+		else if (x < -HALF_PI) x = -PI - x;
+		final float x2 = x*x;
+		return x*(1.0f + x2*(-1.6666667e-1f + x2*(8.333331e-3f + x2*(-1.9840874e-4f + x2*2.7525562e-6f))));
+	}
+	
+	/**
+	 * Polynomial approximation of cos; same error bounds as fastSin.
+	 */
+	public static final float fastCos(float a) {
+		return fastSin(a + HALF_PI);
+	}
+	
+	/**
+	 * Approximation of 2^a. Max. relative error is 3e-7. Returns 0 for
+	 * a < -126 (no denormals).
+	 */
+	public static final float fastExp2(float a) {
+		if (a < -126.0f) return 0.0f;
+		if (a > 127.99999f) return Float.POSITIVE_INFINITY;
+		final int n = Math.round(a);
+		final float f = (a - n) * 0.6931472f; // in [-ln(2)/2, ln(2)/2]
+		final float p = 1.0f + f*(1.0f + f*(0.5f + f*(1.6666667e-1f + f*(4.1666668e-2f + f*(8.333334e-3f + f*1.3888889e-3f)))));
+		return p * Float.intBitsToFloat((n + 127) << 23);
+	}
+	
+	/**
+	 * Approximation of e^a. Max. relative error is 7e-7 for |a| <= 10 and
+	 * 4e-6 for |a| <= 80.
+	 */
+	public static final float fastExp(float a) {
+		return fastExp2(a * LOG2E);
+	}
+	
+	/**
+	 * Approximation of log2(a) for a normalized positive float a. Max. absolute
+	 * error is 2e-7.
+	 */
+	public static final float fastLog2(float a) {
+		final int bits = Float.floatToRawIntBits(a);
+		int e = ((bits >>> 23) & 0xFF) - 127;
+		float m = Float.intBitsToFloat((bits & 0x007FFFFF) | 0x3F800000); // in [1, 2)
+		if (m > 1.4142135f) {
+			m *= 0.5f;
+			e++;
+		}
+		// log2(m) = 2/ln(2) * atanh(s) with s in [-0.172, 0.172]
+		final float s = (m - 1.0f) / (m + 1.0f);
+		final float s2 = s*s;
+		return e + s*(2.8853900f + s2*(0.9617967f + s2*(0.5770780f + s2*0.4121986f)));
+	}
+	
+	/**
+	 * Approximation of a^b. For a > 0 the max. relative error is about
+	 * 3e-7 + 3e-7*|b*log2(a)|. Non positive or denormalized a fall back to
+	 * Math.pow to keep the special cases.
+	 */
+	public static final float fastPow(float a, float b) {
+		if (b == 0.0f) return 1.0f;
+		if (a < Float.MIN_NORMAL || a == Float.POSITIVE_INFINITY) return (float)Math.pow(a, b);
+		return fastExp2(b * fastLog2(a));
+	}
+	
 	public static float sgn(float a) {
 		return (a>0)?1.0f:-1.0f;
 	}
@@ -76,22 +196,23 @@ public final class FMath {
 		return (a*PI)/180.0f;
 	}
 	
+	/**
+	 * Seeds the generator of the calling thread only.
+	 */
 	public static final void setSeed(long seed) {
-		rnd.setSeed(seed);
+		rnd.get().setSeed(seed);
 	}
 	
-	public static final synchronized float random() {
-		return rnd.nextFloat();
-		//return (float)Math.random();
+	public static final float random() {
+		return rnd.get().nextFloat();
 	}
 	
-	public static final synchronized int randomInt() {
-		return rnd.nextInt();
-		//return (float)Math.random();
+	public static final int randomInt() {
+		return rnd.get().nextInt();
 	}
 
 	public static final float random(float min, float max) {
-		return min + rnd.nextFloat()*(max - min);
+		return rnd.get().nextFloat(min, max);
 	}
 	
 	// vanDerCorput Radical Inverse
@@ -0,0 +1,128 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.base;
+
+/**
+ * A seedable, non synchronized pseudo random number generator. Each user
+ * (for example a Pattern while regenerating its data) creates its own
+ * instance so that concurrent evaluation of different nodes neither races on
+ * a shared state nor serializes on a lock.
+ * 
+ * The sequence of a seeded FRandom is identical to the one of
+ * java.util.Random with the same seed; this keeps existing texture graphs
+ * looking exactly as before. New independent generators can be derived with
+ * split(). For per pixel randomness the static hash methods provide a
+ * stateless counter based alternative that gives the same result
+ * independent of evaluation order or thread.
+ */
+public final class FRandom {
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long seed;
+
+	public FRandom(long seed) {
+		setSeed(seed);
+	}
+
+	public void setSeed(long seed) {
+		this.seed = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	private int next(int bits) {
+		seed = (seed * MULTIPLIER + ADDEND) & MASK;
+		return (int) (seed >>> (48 - bits));
+	}
+
+	public int nextInt() {
+		return next(32);
+	}
+
+	/**
+	 * @return a uniformly distributed value in [0, bound)
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+		if ((bound & -bound) == bound) // power of 2
+			return (int) ((bound * (long) next(31)) >> 31);
+
+		int bits, val;
+		do {
+			bits = next(31);
+			val = bits % bound;
+		} while (bits - val + (bound - 1) < 0);
+		return val;
+	}
+
+	public long nextLong() {
+		return ((long) next(32) << 32) + next(32);
+	}
+
+	/**
+	 * @return a uniformly distributed value in [0, 1)
+	 */
+	public float nextFloat() {
+		return next(24) / ((float) (1 << 24));
+	}
+
+	public float nextFloat(float min, float max) {
+		return min + nextFloat() * (max - min);
+	}
+
+	/**
+	 * Creates a new generator whose sequence is independent of this one. This
+	 * advances the state of this generator so consecutive calls return
+	 * different generators.
+	 */
+	public FRandom split() {
+		return new FRandom(mix64(nextLong()));
+	}
+
+	/**
+	 * The SplitMix64 finalizer; a bijective mixing function with good
+	 * avalanche behavior.
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Stateless random value for the given seed and counter.
+	 * 
+	 * @return a uniformly distributed value in [0, 1)
+	 */
+	public static float hash(long seed, long counter) {
+		long h = mix64(seed + (counter + 1) * GOLDEN_GAMMA);
+		return (h >>> 40) / ((float) (1 << 24));
+	}
+
+	/**
+	 * Stateless random value for a 2d integer location (for example a pixel or
+	 * a cell index).
+	 * 
+	 * @return a uniformly distributed value in [0, 1)
+	 */
+	public static float hash(long seed, int x, int y) {
+		return hash(seed, ((long) y << 32) | (x & 0xFFFFFFFFL));
+	}
+}
@@ -179,6 +179,14 @@ public class Vector4 implements Serializable {
 		return this;
 	}
 	
+	public Vector4 pow_ip(float e, boolean fast) {
+		x = FMath.pow(x, e, fast);
+		y = FMath.pow(y, e, fast);
+		z = FMath.pow(z, e, fast);
+		w = FMath.pow(w, e, fast);
+		return this;
+	}
+	
 	public Vector4 mult_ip(float f) {
 		x *= f;
 		y *= f;
@@ -0,0 +1,48 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package engine.base.datastructure;
+
+/**
+ * Common lookup interface for n-dimensional point sets that support nearest
+ * neighbor queries. Implementations can be exact (PointKDTree) or approximate
+ * (RandomizedKDForest).
+ *
+ * @param <Type>
+ */
+public interface NdPointIndex<Type> {
+	public void add(NdPositionable o);
+
+	public void addWithoutDuplis(NdPositionable o, float epsilon);
+	
+	public Type get(int i);
+	
+	public int getDimension();
+	
+	/**
+	 * @return The number of points in this index
+	 */
+	public int size();
+	
+	public void clear();
+	
+	/** This method has to be called after adding points or changing the location of points
+	 */
+	public void build();
+	
+	public Type getNearest(NdPositionable pos);
+}
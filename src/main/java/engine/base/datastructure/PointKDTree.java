@@ -35,7 +35,7 @@ import engine.base.FMath;
  *
  * @param <Type>
  */
-public class PointKDTree<Type> {
+public class PointKDTree<Type> implements NdPointIndex<Type> {
 	Vector<KDPoint> tree = new Vector<KDPoint>();
 	int DIM;
 	
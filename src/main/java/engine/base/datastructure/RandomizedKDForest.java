@@ -0,0 +1,315 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.base.datastructure;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+import engine.base.FRandom;
+
+/**
+ * An approximate nearest neighbor index for high dimensional points. It builds
+ * several kd-trees where each split axis is chosen randomly among the axes of
+ * highest variance and then searches all trees together with a single priority
+ * queue of unexplored branches (similar to the randomized kd-trees in FLANN).
+ * 
+ * The search stops after maxChecks points were compared; this is the
+ * recall/speed knob: larger values find the exact nearest neighbor more often
+ * but are slower. In contrast to the PointKDTree the cost of a lookup does not
+ * degrade to brute force for large dimensions (> 20).
+ *
+ * @param <Type>
+ */
+public class RandomizedKDForest<Type> implements NdPointIndex<Type> {
+	static final int LEAF_SIZE = 4;
+	static final int NUM_RANDOM_AXES = 5; // the split axis is chosen randomly from the NUM_RANDOM_AXES axes of highest variance
+	static final int NUM_VARIANCE_SAMPLES = 100; // the number of points used to estimate mean and variance for a split
+
+	Vector<NdPositionable> points = new Vector<NdPositionable>();
+	int DIM;
+	int numTrees;
+	int maxChecks;
+	long seed = 0;
+	
+	KDNode[] roots;
+	
+	// the search state of each thread; reused between lookups (Query does not
+	// reference the forest so that the forest can be collected)
+	private final ThreadLocal<Query> queries = ThreadLocal.withInitial(Query::new);
+	
+	public RandomizedKDForest(int dimension, int numTrees, int maxChecks) {
+		if (dimension < 2) throw new IllegalArgumentException("RandomizedKDForest only supports dimension > 1");
+		if (numTrees < 1) numTrees = 1;
+		DIM = dimension;
+		this.numTrees = numTrees;
+		setMaxChecks(maxChecks);
+	}
+	
+	public RandomizedKDForest(int dimension) {
+		this(dimension, 4, 128);
+	}
+	
+	/**
+	 * Sets the maximum number of points that are compared during a single lookup.
+	 * This can be changed without rebuilding the forest.
+	 */
+	public void setMaxChecks(int maxChecks) {
+		if (maxChecks < 1) maxChecks = 1;
+		this.maxChecks = maxChecks;
+	}
+	
+	public int getMaxChecks() {
+		return maxChecks;
+	}
+	
+	public int getNumTrees() {
+		return numTrees;
+	}
+	
+	/** The seed used for choosing the random split axes during build */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	public void add(NdPositionable o) {
+		points.add(o);
+	}
+
+	public void addWithoutDuplis(NdPositionable o, float epsilon) {
+		for (NdPositionable p : points) {
+			if (o.nd_distance2Func(p) <= epsilon) return;
+		}
+		points.add(o);
+	}
+	
+	public Type get(int i) {
+		@SuppressWarnings("unchecked")
+		Type r = (Type)points.get(i);
+		return r;
+	}
+	
+	public int getDimension() {
+		return DIM;
+	}
+	
+	public int size() {
+		return points.size();
+	}
+	
+	public void clear() {
+		points.clear();
+		roots = null;
+	}
+	
+	public void build() {
+		FRandom rnd = new FRandom(seed);
+		roots = new KDNode[numTrees];
+		for (int t = 0; t < numTrees; t++) {
+			int[] index = new int[points.size()];
+			for (int i = 0; i < index.length; i++) index[i] = i;
+			// shuffle so that the variance estimation on the first points of a range is not biased
+			for (int i = index.length - 1; i > 0; i--) {
+				int j = rnd.nextInt(i + 1);
+				int temp = index[i];
+				index[i] = index[j];
+				index[j] = temp;
+			}
+			roots[t] = build_recursive(index, 0, index.length, rnd);
+		}
+	}
+	
+	int split_and_sort(int[] index, int si, int ei, int axis, float plane) {
+		while (si < ei) {
+			while ((si < ei) && (points.get(index[si]).getPos(axis) < plane)) si++;
+			while ((si < ei) && (points.get(index[ei-1]).getPos(axis) >= plane)) ei--;
+			if (si < ei-1) {
+				int temp = index[si];
+				index[si] = index[ei-1];
+				index[ei-1] = temp;
+			}
+		}
+		return si;
+	}
+	
+	float computeMean(int[] index, int si, int ei, int axis) {
+		float mean = 0.0f;
+		for (int i = si; i < ei; i++) mean += points.get(index[i]).getPos(axis);
+		return mean / (ei - si);
+	}
+	
+	KDNode build_recursive(int[] index, int si, int ei, FRandom rnd) {
+		KDNode node = new KDNode(index, si, ei);
+		if (ei - si <= LEAF_SIZE) return node;
+		
+		int num = Math.min(ei - si, NUM_VARIANCE_SAMPLES);
+		final float[] mean = new float[DIM];
+		final float[] var = new float[DIM];
+		for (int i = si; i < si + num; i++) {
+			NdPositionable p = points.get(index[i]);
+			for (int d = 0; d < DIM; d++) mean[d] += p.getPos(d);
+		}
+		for (int d = 0; d < DIM; d++) mean[d] /= num;
+		for (int i = si; i < si + num; i++) {
+			NdPositionable p = points.get(index[i]);
+			for (int d = 0; d < DIM; d++) {
+				float v = p.getPos(d) - mean[d];
+				var[d] += v*v;
+			}
+		}
+		
+		// select the NUM_RANDOM_AXES axes with the highest variance and pick one of them
+		int numAxes = Math.min(NUM_RANDOM_AXES, DIM);
+		int[] topAxes = new int[numAxes];
+		int count = 0;
+		for (int d = 0; d < DIM; d++) {
+			if (count < numAxes) count++;
+			else if (var[d] <= var[topAxes[numAxes-1]]) continue;
+			int j = count - 1;
+			while (j > 0 && var[topAxes[j-1]] < var[d]) {
+				topAxes[j] = topAxes[j-1];
+				j--;
+			}
+			topAxes[j] = d;
+		}
+		int axis = topAxes[rnd.nextInt(numAxes)];
+		
+		float plane = mean[axis];
+		int m = split_and_sort(index, si, ei, axis, plane);
+		if (m == si || m == ei) { // the sampled mean was not representative; try the exact mean
+			plane = computeMean(index, si, ei, axis);
+			m = split_and_sort(index, si, ei, axis, plane);
+			if (m == si || m == ei) return node; // all points are equal along this axis
+		}
+		
+		node.axis = axis;
+		node.plane = plane;
+		node.left = build_recursive(index, si, m, rnd);
+		node.right = build_recursive(index, m, ei, rnd);
+		return node;
+	}
+	
+	/**
+	 * Returns the approximate nearest neighbor of pos. At most maxChecks points
+	 * are compared (the search is exact if the whole index is explored).
+	 */
+	public Type getNearest(NdPositionable pos) {
+		if (roots == null || points.size() == 0) return null;
+		
+		final Query q = queries.get();
+		q.start(pos, points);
+		for (int t = 0; t < roots.length; t++) {
+			q.descend(roots[t], 0.0f);
+		}
+		while (!q.branches.isEmpty() && q.checks < maxChecks) {
+			Branch b = q.branches.poll();
+			if (b.mindist >= q.mindist) break; // all remaining branches are further away
+			q.descend(b.node, b.mindist);
+		}
+		
+		@SuppressWarnings("unchecked")
+		Type r = (Type)q.nearest;
+		q.pos = null;
+		q.points = null;
+		q.nearest = null;
+		return r;
+	}
+	
+	/**
+	 * The search state of a lookup; kept separate from the forest (one per
+	 * thread) so that concurrent lookups are possible.
+	 */
+	static final class Query {
+		NdPositionable pos;
+		Vector<NdPositionable> points;
+		final PriorityQueue<Branch> branches = new PriorityQueue<Branch>();
+		// a point i was already compared in this lookup if checked[i] == lookup
+		int[] checked = new int[0];
+		int lookup = 0;
+		NdPositionable nearest;
+		float mindist;
+		int checks;
+		
+		void start(NdPositionable pos, Vector<NdPositionable> points) {
+			this.pos = pos;
+			this.points = points;
+			branches.clear();
+			if (checked.length < points.size()) checked = new int[points.size()];
+			if (++lookup == 0) { // wrapped around
+				Arrays.fill(checked, 0);
+				lookup = 1;
+			}
+			nearest = null;
+			mindist = Float.MAX_VALUE;
+			checks = 0;
+		}
+		
+		void descend(KDNode node, float dist) {
+			while (node.axis != -1) {
+				float d = pos.getPos(node.axis) - node.plane;
+				KDNode near = (d < 0) ? node.left : node.right;
+				KDNode far = (d < 0) ? node.right : node.left;
+				float farDist = dist + d*d;
+				if (farDist < mindist) branches.add(new Branch(far, farDist));
+				node = near;
+			}
+			
+			for (int i = node.start; i < node.end; i++) {
+				int pi = node.index[i];
+				if (checked[pi] == lookup) continue;
+				checked[pi] = lookup;
+				checks++;
+				NdPositionable p = points.get(pi);
+				float d = pos.nd_distance2Func(p);
+				if (d < mindist) {
+					mindist = d;
+					nearest = p;
+				}
+			}
+		}
+	}
+	
+	static final class Branch implements Comparable<Branch> {
+		final KDNode node;
+		final float mindist;
+		
+		Branch(KDNode node, float mindist) {
+			this.node = node;
+			this.mindist = mindist;
+		}
+
+		public int compareTo(Branch b) {
+			return Float.compare(mindist, b.mindist);
+		}
+	}
+	
+	static final class KDNode {
+		final int[] index; // the point permutation of the tree this node belongs to
+		final int start, end; // range in index (only used for leafs)
+		int axis = -1;
+		float plane;
+		KDNode left, right;
+		
+		KDNode(int[] index, int start, int end) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+	}
+}
@@ -5,6 +5,8 @@ import java.util.HashMap;
 
 import engine.base.FMath;
 import engine.base.Vector4;
+import engine.parameters.ColorGradient;
+import engine.parameters.ColorGradientParam;
 
 /**
  * 
@@ -12,6 +14,14 @@ import engine.base.Vector4;
  * 
  */
 public final class CacheTileManager {
+	/**
+	 * If true, chains of point-wise channels (see Channel.isPointwise) are
+	 * computed as one kernel: a point-wise input of a point-wise channel that
+	 * is not cached yet is evaluated per pixel instead of being stored in its
+	 * own tile first.
+	 */
+	public static boolean fusePointwise = true;
+	
 	//private static final HashMap<Channel, HashMap<ResolutionTag, TileCacheEntry>> tiles = new HashMap<Channel, HashMap<ResolutionTag, TileCacheEntry>>();
 
 	static final class ResolutionTag {
@@ -73,6 +83,11 @@ public final class CacheTileManager {
 	// }
 	// }
 
+	/** The reconstruction filter for TileCacheEntry.sample_Normalized */
+	public enum SampleFilter {
+		NEAREST, BILINEAR, BICUBIC
+	}
+
 	public static final class TileCacheEntry {
 		public final int globalXres;
 		public final int globalYres;
@@ -81,12 +96,26 @@ public final class CacheTileManager {
 		public final int yres; // the local y resolution of this tile
 		public int px, py; // the location in the overall image
 		boolean dirty;
+		// the FMath fast math mode, the Channel.settingsVersion and the
+		// footprint of the channel (see Channel.prepareEvaluation) the data
+		// was computed with
+		boolean fastMath;
+		int settingsVersion;
+		float footprint;
+		
+		// the scalar field of a pattern with color mapping (before the mapping)
+		float[] scalar;
+		boolean scalarValid;
 
 		final Channel c;
 
 		final int border; // the border size of this tile
 
 		final FloatBuffer data;
+		
+		// the inputs of a fused entry (see fusePointwise); a fused entry has no
+		// data and computes each sample with the cache_function of c
+		final TileCacheEntry[] fusedInputs;
 
 		public void put(int i, final Vector4 val) {
 			data.put(i * 4 + 0, val.x);
@@ -95,6 +124,13 @@ public final class CacheTileManager {
 			data.put(i * 4 + 3, val.w);
 		}
 
+		public void put(int i, float x, float y, float z, float w) {
+			data.put(i * 4 + 0, x);
+			data.put(i * 4 + 1, y);
+			data.put(i * 4 + 2, z);
+			data.put(i * 4 + 3, w);
+		}
+
 		public void relocateCache(int px, int py) {
 			if (this.px != px || this.py != py)
 				setDirty();
@@ -103,6 +139,7 @@ public final class CacheTileManager {
 		}
 
 		public Vector4 sample(int x, int y) {
+			if (fusedInputs != null) return sampleFused(x, y);
 			int i = ((x + border) + (y + border) * (xres + 2*border)) * 4;
 			return new Vector4(data.get(i + 0), data.get(i + 1), data.get(i + 2), data.get(i + 3));
 		}
@@ -128,11 +165,106 @@ public final class CacheTileManager {
 			while (x >= xres)
 				x -= xres;
 			while (y >= yres)
-				y -= xres;
+				y -= yres;
 			int i = (x + border + (y +border) * (xres+2*border)) * 4;
 			return new Vector4(data.get(i + 0), data.get(i + 1), data.get(i + 2), data.get(i + 3));
 		}
 		
+		/**
+		 * Samples this tile at the normalized position (u, v) with wrap around.
+		 * The tile is interpreted as the whole (periodic) image so this should
+		 * only be used on a full resolution cache (see getFullResolutionCache).
+		 */
+		public Vector4 sample_Normalized(float u, float v, SampleFilter filter) {
+			switch (filter) {
+				case NEAREST: return sample_Normalized(u, v);
+				case BILINEAR: return sample_Bilinear(u, v);
+				default: return sample_Bicubic(u, v);
+			}
+		}
+		
+		private Vector4 sample_Bilinear(float u, float v) {
+			final float fx = u * xres;
+			final float fy = v * yres;
+			final int x = FMath.ffloor(fx);
+			final int y = FMath.ffloor(fy);
+			final float tx = fx - x;
+			final float ty = fy - y;
+			
+			final Vector4 ret = new Vector4(0.0f);
+			add_ip(ret, x, y, (1.0f - tx) * (1.0f - ty));
+			add_ip(ret, x + 1, y, tx * (1.0f - ty));
+			add_ip(ret, x, y + 1, (1.0f - tx) * ty);
+			add_ip(ret, x + 1, y + 1, tx * ty);
+			return ret;
+		}
+		
+		// Catmull-Rom spline; the result is clamped to the range of the 4
+		// nearest pixels since the spline overshoots at edges
+		private Vector4 sample_Bicubic(float u, float v) {
+			final float fx = u * xres;
+			final float fy = v * yres;
+			final int x = FMath.ffloor(fx);
+			final int y = FMath.ffloor(fy);
+			final float[] wx = catmullRomWeights(fx - x);
+			final float[] wy = catmullRomWeights(fy - y);
+			
+			final Vector4 ret = new Vector4(0.0f);
+			for (int j = 0; j < 4; j++) {
+				for (int i = 0; i < 4; i++) {
+					add_ip(ret, x - 1 + i, y - 1 + j, wx[i] * wy[j]);
+				}
+			}
+			
+			final Vector4 min = new Vector4(Float.MAX_VALUE);
+			final Vector4 max = new Vector4(-Float.MAX_VALUE);
+			for (int j = 0; j < 2; j++) {
+				for (int i = 0; i < 2; i++) {
+					final int idx = pixelIndex(x + i, y + j);
+					min.x = Math.min(min.x, data.get(idx + 0));
+					min.y = Math.min(min.y, data.get(idx + 1));
+					min.z = Math.min(min.z, data.get(idx + 2));
+					min.w = Math.min(min.w, data.get(idx + 3));
+					max.x = Math.max(max.x, data.get(idx + 0));
+					max.y = Math.max(max.y, data.get(idx + 1));
+					max.z = Math.max(max.z, data.get(idx + 2));
+					max.w = Math.max(max.w, data.get(idx + 3));
+				}
+			}
+			ret.x = Math.min(Math.max(ret.x, min.x), max.x);
+			ret.y = Math.min(Math.max(ret.y, min.y), max.y);
+			ret.z = Math.min(Math.max(ret.z, min.z), max.z);
+			ret.w = Math.min(Math.max(ret.w, min.w), max.w);
+			return ret;
+		}
+		
+		private static float[] catmullRomWeights(float t) {
+			return new float[] {
+				((-t + 2.0f) * t - 1.0f) * t * 0.5f,
+				((3.0f * t - 5.0f) * t * t + 2.0f) * 0.5f,
+				((-3.0f * t + 4.0f) * t + 1.0f) * t * 0.5f,
+				(t - 1.0f) * t * t * 0.5f
+			};
+		}
+		
+		// the index of the first component of pixel (x, y) with wrap around
+		private int pixelIndex(int x, int y) {
+			x %= xres;
+			if (x < 0) x += xres;
+			y %= yres;
+			if (y < 0) y += yres;
+			return (x + border + (y + border) * (xres + 2 * border)) * 4;
+		}
+		
+		// ret += w * pixel(x, y) with wrap around
+		private void add_ip(Vector4 ret, int x, int y, float w) {
+			final int i = pixelIndex(x, y);
+			ret.x += w * data.get(i + 0);
+			ret.y += w * data.get(i + 1);
+			ret.z += w * data.get(i + 2);
+			ret.w += w * data.get(i + 3);
+		}
+		
 		
 		
 
@@ -148,22 +280,117 @@ public final class CacheTileManager {
 			this.border = border;
 			this.c = c;
 			data = FloatBuffer.allocate((xres + 2 * border) * (yres + 2 * border) * 4);
+			fusedInputs = null;
+		}
+		
+		// a fused entry of c at the location of tile; only sample can be used on it
+		private TileCacheEntry(Channel c, TileCacheEntry tile, TileCacheEntry[] inputs) {
+			dirty = false;
+
+			this.globalXres = tile.globalXres;
+			this.globalYres = tile.globalYres;
+			this.xres = tile.xres;
+			this.yres = tile.yres;
+			this.px = tile.px;
+			this.py = tile.py;
+			this.border = 0;
+			this.c = c;
+			data = null;
+			fusedInputs = inputs;
+		}
+		
+		private Vector4 sampleFused(int x, int y) {
+			float u = (float) (px * xres + x) / (float) globalXres;
+			float v = (float) (py * yres + y) / (float) globalYres;
+			u = u - FMath.ffloor(u);
+			v = v - FMath.ffloor(v);
+			Vector4 temp = new Vector4();
+			c.cache_function(temp, fusedInputs, x, y, u, v);
+			return temp;
+		}
+		
+		// true if ic can be fused into the tile of its consumer
+		private boolean fusable(Channel ic) {
+			return ic.isPointwise() && !ic.usesTransferLUT() && !isCached(ic, this);
+		}
+		
+		// counts how often each channel is used as input in the part of the
+		// graph that can be fused
+		private void countUses(Channel ic, HashMap<Channel, Integer> uses) {
+			ic = ic.cacheChannel();
+			final Integer n = uses.get(ic);
+			uses.put(ic, (n == null) ? 1 : n + 1);
+			if (n == null && fusable(ic)) {
+				for (Channel i : ic.inputChannels) countUses(i, uses);
+			}
+		}
+		
+		// the tile of the input channel ic; if uses is not null (c is
+		// point-wise) a point-wise ic that is not cached yet is fused unless
+		// it is used more than once; fusing such an input would evaluate it
+		// once per use (exponentially often in a chain of diamonds)
+		private TileCacheEntry inputTile(Channel ic, HashMap<Channel, Integer> uses) {
+			ic = ic.cacheChannel();
+			if (uses != null && Integer.valueOf(1).equals(uses.get(ic)) && fusable(ic)) {
+				final TileCacheEntry[] inputs = new TileCacheEntry[ic.getNumInputChannels()];
+				for (int i = 0; i < inputs.length; i++) {
+					inputs[i] = inputTile(ic.inputChannels[i], uses);
+				}
+				return new TileCacheEntry(ic, this, inputs);
+			}
+			return getPreparedCache(ic, px, py, xres, yres, globalXres, globalYres);
 		}
 
+		// true if the data was computed with the current global settings and
+		// the current footprint of the channel
+		boolean hasCurrentSettings() {
+			return fastMath == FMath.isFastMath() && settingsVersion == Channel.settingsVersion && footprint == c.footprint;
+		}
+		
 		public void setDirty() {
 			dirty = true;
+			scalarValid = false;
 		}
 
 		public void compute() {
 			if (!dirty) {
 				return;
 			}
+			// normally the channel was prepared together with the channel
+			// getCache was called for
+			if (!c.prepared) c.prepareEvaluation(Channel.pixelFootprint(globalXres, globalYres));
 
 			final int startY = py * yres - border;
 			final int endY = (py + 1) * yres + border;
 			
 
-			if (c.getNumInputChannels() == 0) { // no input channels
+			final ColorGradientParam mapping = (c instanceof Pattern) ? ((Pattern) c).getColorMapping() : null;
+			
+			if (mapping != null) { // scalar pattern: (cached) scalar field followed by the color mapping
+				final int size = (xres + 2 * border) * (yres + 2 * border);
+				if (scalar == null || scalar.length != size) {
+					scalar = new float[size];
+					scalarValid = false;
+				}
+				if (!scalarValid) {
+					final Pattern p = (Pattern) c;
+					for (int y = startY, idx = 0; y < endY; y++) {
+						for (int x = px * xres - border; x < (px + 1) * xres + border; x++, idx++) {
+							float u = (float) x / (float) globalXres;
+							float v = (float) y / (float) globalYres;
+							u = u - FMath.ffloor(u);
+							v = v - FMath.ffloor(v);
+							scalar[idx] = p.value1f(u, v);
+						}
+					}
+					scalarValid = true;
+				}
+				final ColorGradient gradient = mapping.get();
+				for (int idx = 0; idx < size; idx++) {
+					put(idx, gradient.getColor(scalar[idx]));
+				}
+				
+			} else if (c.getNumInputChannels() == 0) { // no input channels
 
 				for (int y = startY, idx = 0; y < endY; y++) {
 					for (int x = px * xres - border; x < (px + 1) * xres + border; x++, idx++) {
@@ -177,25 +404,35 @@ public final class CacheTileManager {
 
 			} else {
 				final TileCacheEntry[] tiles = new TileCacheEntry[c.getNumInputChannels()];
+				HashMap<Channel, Integer> uses = null;
+				if (fusePointwise && c.isPointwise()) {
+					uses = new HashMap<Channel, Integer>();
+					for (Channel ic : c.inputChannels) countUses(ic, uses);
+				}
 
 				for (int i = 0; i < tiles.length; i++) {
-					tiles[i] = getCache(c.inputChannels[i], px, py, xres, yres, globalXres, globalYres);
+					tiles[i] = inputTile(c.inputChannels[i], uses);
 				}
 
-				for (int y = startY, idx = 0, localY = border; y < endY; y++, localY++) {
-					for (int x = px * xres - border, localX = border; x < (px + 1) * xres + border; x++, idx++, localX++) {
-						float u = (float) x / (float) globalXres;
-						float v = (float) y / (float) globalYres;
-						u = u - FMath.ffloor(u);
-						v = v - FMath.ffloor(v);
-						Vector4 temp = new Vector4();
-						c.cache_function(temp, tiles, localX, localY, u, v);
-						put(idx, temp);
+				if (!c.cache_tileFunction(this, tiles)) {
+					for (int y = startY, idx = 0, localY = border; y < endY; y++, localY++) {
+						for (int x = px * xres - border, localX = border; x < (px + 1) * xres + border; x++, idx++, localX++) {
+							float u = (float) x / (float) globalXres;
+							float v = (float) y / (float) globalYres;
+							u = u - FMath.ffloor(u);
+							v = v - FMath.ffloor(v);
+							Vector4 temp = new Vector4();
+							c.cache_function(temp, tiles, localX, localY, u, v);
+							put(idx, temp);
+						}
 					}
 				}
 			}
 
 			dirty = false;
+			fastMath = FMath.isFastMath();
+			settingsVersion = Channel.settingsVersion;
+			footprint = c.footprint;
 		}
 	}
 
@@ -203,6 +440,28 @@ public final class CacheTileManager {
 //		tiles.clear();
 	}
 
+	/**
+	 * Marks the entries of c dirty but keeps their scalar field (only the
+	 * color mapping of the pattern changed).
+	 */
+	public static void setEntrysMappingDirty(Channel c) {
+		HashMap<ResolutionTag, TileCacheEntry> channelMap = c.cacheEntries;
+		if (channelMap == null)
+			return;
+
+		for (TileCacheEntry e : channelMap.values()) {
+			e.dirty = true;
+		}
+	}
+
+	// true if c has an up to date entry at the location of tile
+	static boolean isCached(Channel c, TileCacheEntry tile) {
+		if (c.cacheEntries == null)
+			return false;
+		TileCacheEntry e = c.cacheEntries.get(new ResolutionTag(tile.xres, tile.yres, tile.globalXres, tile.globalYres));
+		return e != null && !e.dirty && e.px == tile.px && e.py == tile.py && e.hasCurrentSettings();
+	}
+
 	public static void setEntrysDirty(Channel c) {
 		HashMap<ResolutionTag, TileCacheEntry> channelMap = c.cacheEntries;
 		if (channelMap == null)
@@ -218,7 +477,22 @@ public final class CacheTileManager {
 //		tiles.put(c, null);
 //	}
 
+	/**
+	 * Returns the computed tile of c. c and the channels it depends on are
+	 * prepared once for the pixel footprint of the global resolution so that
+	 * every input is computed with the footprint of the direct evaluation
+	 * (see Channel.inputFootprint).
+	 */
 	public static TileCacheEntry getCache(Channel c, int px, int py, int xres, int yres, int globalXres, int globalYres) {
+		c.prepareEvaluation(Channel.pixelFootprint(globalXres, globalYres));
+		return getPreparedCache(c, px, py, xres, yres, globalXres, globalYres);
+	}
+	
+	// as getCache for a channel that was prepared together with the channel
+	// whose tile is computed (an input of it); structurally identical
+	// channels share the tiles of their cacheChannel
+	static TileCacheEntry getPreparedCache(Channel c, int px, int py, int xres, int yres, int globalXres, int globalYres) {
+		c = c.cacheChannel();
 		HashMap<ResolutionTag, TileCacheEntry> channelMap = c.cacheEntries;
 		if (channelMap == null) {
 			channelMap = new HashMap<ResolutionTag, TileCacheEntry>();
@@ -238,8 +512,24 @@ public final class CacheTileManager {
 		}
 
 		tile.relocateCache(px, py);
+		if (!tile.hasCurrentSettings())
+			tile.setDirty();
 		tile.compute();
 		return tile;
 	}
+	
+	/**
+	 * Returns the (computed) cache of c that covers the whole image at the
+	 * global resolution of the given tile; this is the tile itself if it is
+	 * already full resolution. Used by channels that need random access to
+	 * their input (for example to remap coordinates).
+	 */
+	public static TileCacheEntry getFullResolutionCache(Channel c, TileCacheEntry tile) {
+		if (tile.c == c.cacheChannel() && tile.xres == tile.globalXres && tile.yres == tile.globalYres && tile.px == 0 && tile.py == 0) {
+			tile.compute();
+			return tile;
+		}
+		return getPreparedCache(c, 0, 0, tile.globalXres, tile.globalYres, tile.globalXres, tile.globalYres);
+	}
 
 }
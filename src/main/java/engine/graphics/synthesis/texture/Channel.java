@@ -20,9 +20,10 @@ package engine.graphics.synthesis.texture;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Scanner;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.mystictri.neotextureedit.TextureEditor;
 import engine.base.FMath;
@@ -31,6 +32,7 @@ import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
 import engine.parameters.AbstractParam;
 import engine.parameters.LocalParameterManager;
 import engine.parameters.TextParam;
+import engine.parameters.Tokenizer;
 
 /**
  * A channel is an Procedural Texture Generation interface that can get 0 or
@@ -45,6 +47,26 @@ public abstract class Channel extends LocalParameterManager {
 	public TextParam exportName = CreateLocalTextParam("ExportName", "");
 	Channel[] inputChannels;
 	
+	// set by prepareEvaluation and reset in parameterChanged
+	volatile boolean prepared = false;
+	// the pixel footprint this channel is prepared for (see prepareEvaluation)
+	float footprint = 0.0f;
+	// the FMath fast math mode this channel is prepared for; prepare copies it
+	// into the state that the per pixel code reads
+	boolean fastMath = false;
+	// used to visit each channel only once per call of prepareEvaluation
+	private int prepareVisit;
+	private static final AtomicInteger prepareVisitCounter = new AtomicInteger();
+	// incremented when a global setting that prepare depends on changes; the
+	// cached tiles computed with an older version are recomputed
+	static volatile int settingsVersion;
+	private int preparedSettingsVersion;
+	// the class and the parameters (without the export name) of this channel;
+	// computed when the channel is prepared
+	private String parameterKey;
+	// the channel whose cached tiles are used for this channel (see cacheChannel)
+	private Channel canonical = this;
+	
 	{
 		exportName.setSilent(true); // the exportName should not notify the change listener (at least currently)
 	}
@@ -94,16 +116,103 @@ public abstract class Channel extends LocalParameterManager {
 	 * method can also be called with source == null; it then means that a
 	 * parameter silently changed. Subclasses of channel who override this
 	 * method needs to account for source==null and recreate all internal data
-	 * structures accordingly.
+	 * structures accordingly. During an update (see beginUpdate) the cache
+	 * invalidation and the notification are deferred to the commit and done
+	 * only once.
 	 */
 	public void parameterChanged(AbstractParam source) {
-		CacheTileManager.setEntrysDirty(this);
+		prepared = false;
+		if (isUpdating()) {
+			// several different sources are merged into a full invalidation
+			pendingSource = (changePending && pendingSource != source) ? null : source;
+			changePending = true;
+			return;
+		}
+		notifyChanged(source);
+	}
+	
+	// the change that is currently propagated downstream on a thread (see notifyChanged)
+	private static final class Propagation {
+		int epoch;
+		ArrayList<Channel> invalidated; // null if no change is propagated
+	}
+	private static final ThreadLocal<Propagation> propagation = ThreadLocal.withInitial(Propagation::new);
+	private static final AtomicInteger changeEpochs = new AtomicInteger();
+	// the epoch of the last change that invalidated this channel
+	private int invalidatedEpoch;
+	
+	/**
+	 * Invalidates this channel and (through channelInvalidated of the
+	 * listeners) everything downstream of it; each channel is stamped with the
+	 * epoch of the change so that it is invalidated only once even if it is
+	 * reached on several paths. The channels are visited breadth first
+	 * without recursion. Afterwards channelChanged is called once per
+	 * invalidated channel.
+	 */
+	private void notifyChanged(AbstractParam source) {
+		Propagation p = propagation.get();
+		if (p.invalidated != null) {
+			// reached from upstream during the current change
+			if (invalidatedEpoch != p.epoch) invalidate(source, p);
+			return;
+		}
 		
-		for (ChannelChangeListener c : changeListener) {
-			c.channelChanged(this);
+		p.epoch = changeEpochs.incrementAndGet();
+		ArrayList<Channel> invalidated = new ArrayList<Channel>();
+		p.invalidated = invalidated;
+		try {
+			invalidate(source, p);
+			for (int i = 0; i < invalidated.size(); i++) {
+				Channel c = invalidated.get(i);
+				for (ChannelChangeListener l : c.changeListener) {
+					l.channelInvalidated(c);
+				}
+			}
+		} finally {
+			p.invalidated = null;
+		}
+		for (Channel c : invalidated) {
+			for (ChannelChangeListener l : c.changeListener) {
+				l.channelChanged(c);
+			}
+		}
+	}
+	
+	private void invalidate(AbstractParam source, Propagation p) {
+		invalidatedEpoch = p.epoch;
+		invalidateCache(source);
+		p.invalidated.add(this);
+	}
+	
+	/**
+	 * Called (by a connection of a texture graph) when an input of this
+	 * channel changed; calls parameterChanged(null) unless this channel was
+	 * already invalidated by the same change on another path.
+	 */
+	public void inputChanged() {
+		Propagation p = propagation.get();
+		if (p.invalidated != null && invalidatedEpoch == p.epoch) return;
+		parameterChanged(null);
+	}
+	
+	// the deferred change of the current update (see parameterChanged)
+	private boolean changePending = false;
+	private AbstractParam pendingSource = null;
+	
+	protected void updateCommitted() {
+		if (changePending) {
+			changePending = false;
+			AbstractParam source = pendingSource;
+			pendingSource = null;
+			notifyChanged(source);
 		}
 	}
 
+	/** Marks the cache entries of this channel dirty after source changed. */
+	void invalidateCache(AbstractParam source) {
+		CacheTileManager.setEntrysDirty(this);
+	}
+
 	protected Channel() {
 	}
 
@@ -118,6 +227,15 @@ public abstract class Channel extends LocalParameterManager {
 		}
 	}
 
+	/**
+	 * Sets the input without notifying anyone; used to build graphs in bulk
+	 * where parameterChanged(null) is called once after all inputs are set
+	 * (see TextureGraph.addAll).
+	 */
+	public void linkInputChannel(int idx, Channel c) {
+		inputChannels[idx] = c;
+	}
+
 	abstract public OutputType getChannelInputType(int idx);
 
 	public int getNumInputChannels() {
@@ -142,7 +260,124 @@ public abstract class Channel extends LocalParameterManager {
 	}
 
 
+	/**
+	 * Prepares this channel and all channels it depends on for a batch of
+	 * evaluations. It is called before the per pixel loops of the image and
+	 * cache computations; valueRGBA calls it lazily so direct users do not
+	 * need to. A prepared channel is only prepared again after a parameter or
+	 * input of it (or upstream of it) changed or if the footprint changed.
+	 * 
+	 * @param footprint the size of an output pixel in texture space (see
+	 *            pixelFootprint) or 0 for point sampling; channels can use it
+	 *            to band limit their output. The inputs are prepared for the
+	 *            footprint returned by inputFootprint; a channel that is
+	 *            reached on several paths uses the smallest one.
+	 */
+	public final void prepareEvaluation(float footprint) {
+		prepareRecursive(footprint, FMath.isFastMath(), prepareVisitCounter.incrementAndGet(), new HashMap<StructuralKey, Channel>());
+	}
+	
+	/** Prepares this channel (if needed) for point sampling */
+	public final void prepareEvaluation() {
+		if (!prepared) prepareEvaluation(0.0f);
+	}
+	
+	private void prepareRecursive(float footprint, boolean fastMath, int visit, HashMap<StructuralKey, Channel> canonicals) {
+		if (prepareVisit == visit && footprint >= this.footprint) return;
+		prepareVisit = visit;
+		if (inputChannels != null) {
+			for (int i = 0; i < inputChannels.length; i++) {
+				if (inputChannels[i] != null) inputChannels[i].prepareRecursive(inputFootprint(i, footprint), fastMath, visit, canonicals);
+			}
+		}
+		if (!prepared || this.footprint != footprint || this.fastMath != fastMath || preparedSettingsVersion != settingsVersion) {
+			this.footprint = footprint;
+			this.fastMath = fastMath;
+			preparedSettingsVersion = settingsVersion;
+			parameterKey = computeParameterKey();
+			prepare();
+			prepared = true;
+		}
+		final Channel c = canonicals.putIfAbsent(new StructuralKey(this), this);
+		canonical = (c == null) ? this : c;
+	}
+	
+	private String computeParameterKey() {
+		StringWriter key = new StringWriter();
+		key.write(getClass().getName());
+		try {
+			for (AbstractParam param : m_LocalParameters) {
+				if (param == exportName)
+					continue;
+				key.write(" " + param.getName() + " ");
+				param.save(key);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return key.toString();
+	}
+	
+	// two channels with equal keys compute the same output: the same class,
+	// parameters and footprint and the same (canonical) input channels
+	private static final class StructuralKey {
+		final String parameters;
+		final float footprint;
+		final Channel[] inputs;
+		
+		StructuralKey(Channel c) {
+			parameters = c.parameterKey;
+			footprint = c.footprint;
+			inputs = new Channel[c.getNumInputChannels()];
+			for (int i = 0; i < inputs.length; i++) {
+				if (c.inputChannels[i] != null) inputs[i] = c.inputChannels[i].canonical;
+			}
+		}
+		
+		public boolean equals(Object o) {
+			if (!(o instanceof StructuralKey)) return false;
+			final StructuralKey k = (StructuralKey) o;
+			if (footprint != k.footprint || inputs.length != k.inputs.length || !parameters.equals(k.parameters)) return false;
+			for (int i = 0; i < inputs.length; i++) {
+				if (inputs[i] != k.inputs[i]) return false;
+			}
+			return true;
+		}
+		
+		public int hashCode() {
+			int h = parameters.hashCode() * 31 + Float.floatToIntBits(footprint);
+			for (Channel c : inputs) h = h * 31 + System.identityHashCode(c);
+			return h;
+		}
+	}
+	
+	/**
+	 * The channel whose cached tiles are used for this channel: the first
+	 * structurally identical channel (see StructuralKey) that the last
+	 * prepareEvaluation reached, so duplicated parts of a graph are computed
+	 * and cached only once.
+	 */
+	final Channel cacheChannel() {
+		final Channel c = canonical;
+		return (c.prepared && c.footprint == footprint) ? c : this;
+	}
+	
+	/**
+	 * The footprint the input idx is evaluated with when this channel is
+	 * evaluated with the given footprint. Channels that remap the coordinates
+	 * of an input override this; 0 disables band limiting of the input.
+	 */
+	protected float inputFootprint(int idx, float footprint) {
+		return footprint;
+	}
+	
+	/** The footprint of a pixel in an image of the given resolution */
+	public static float pixelFootprint(int xres, int yres) {
+		return 1.0f / Math.min(xres, yres);
+	}
+	
 	public Vector4 valueRGBA(float u, float v) {
+		if (!prepared) prepareEvaluation();
 		Vector4 val = _valueRGBA(u - FMath.ffloor(u), v - FMath.ffloor(v));
 		return val;
 	}
@@ -151,6 +386,72 @@ public abstract class Channel extends LocalParameterManager {
 	public static float deltaU = 1.0f / (deltaFac*256.0f);
 	public static float deltaV = 1.0f / (deltaFac*256.0f);
 
+	private static int transferLUTSize = 0;
+	
+	/**
+	 * Sets the number of entries of the lookup tables that chains of channels
+	 * with a transfer function (see hasTransferFunction) are baked into; the
+	 * tables are linearly interpolated. 0 (the default) disables the tables
+	 * and evaluates the exact functions. 4096 is usually not visible in 8 bit
+	 * output. Takes effect on the next prepareEvaluation; already cached
+	 * tiles are recomputed.
+	 */
+	public static void setTransferLUTSize(int size) {
+		transferLUTSize = Math.max(0, size);
+		settingsVersion++;
+	}
+	
+	public static int getTransferLUTSize() {
+		return transferLUTSize;
+	}
+	
+	/**
+	 * Returns true if each output component of this channel only depends on
+	 * the same component of input 0 (see transferFunction). Called after
+	 * prepare.
+	 */
+	boolean hasTransferFunction() {
+		return false;
+	}
+	
+	/** The output component for the input value x if hasTransferFunction is true */
+	float transferFunction(int component, float x) {
+		return x;
+	}
+	
+	/**
+	 * If true valueRGBA_d uses the analytic derivatives of the channels that
+	 * provide them; otherwise all derivatives are computed with finite
+	 * differences (as in du1f/dv1f).
+	 */
+	public static boolean useAnalyticDerivatives = true;
+	
+	/**
+	 * The derivatives of valueRGBA_d, du1f and dv1f are the change over 1/256
+	 * of the texture (and not over the whole [0,1) range).
+	 */
+	public static final float derivativeScale = 1.0f / 256.0f;
+	
+	/**
+	 * Computes the value and its derivatives with respect to u and v (scaled by
+	 * derivativeScale) in a single evaluation of the upstream graph. Channels
+	 * that implement _valueRGBA_d propagate the derivatives with the chain rule
+	 * (dual numbers); all other channels fall back to finite differences
+	 * which costs three evaluations of this channel.
+	 */
+	public void valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		if (!prepared) prepareEvaluation();
+		if (!useAnalyticDerivatives || !_valueRGBA_d(u - FMath.ffloor(u), v - FMath.ffloor(v), val, du, dv)) {
+			finiteDifferences_d(u, v, val, du, dv);
+		}
+	}
+	
+	final void finiteDifferences_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		val.set(valueRGBA(u, v));
+		du.set(valueRGBA(u + deltaU, v)).sub_ip(val).mult_ip(deltaFac);
+		dv.set(valueRGBA(u, v + deltaV)).sub_ip(val).mult_ip(deltaFac);
+	}
+	
 	public Vector4 du1f(float u, float v) {
 		return new Vector4(valueRGBA(u + deltaU, v)).sub_ip(valueRGBA(u, v)).mult_ip(deltaFac);
 	}
@@ -169,11 +470,121 @@ public abstract class Channel extends LocalParameterManager {
 	protected Vector4 _valueRGBA(float u, float v) {
 		return new Vector4(0.0f, 0.0f, 0.0f, 1.0f);
 	}
+	
+	/**
+	 * Can be overwritten by channels that can propagate derivatives: val has
+	 * to be set to the same value as _valueRGBA and du/dv to its derivatives;
+	 * the inputs are evaluated with valueRGBA_d.
+	 * 
+	 * @return false if the derivatives are not available (then finite
+	 *         differences are used)
+	 */
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		return false;
+	}
+	
+	/**
+	 * Called once per batch of evaluations (see prepareEvaluation). Channels
+	 * override this to read their parameters and precompute derived values
+	 * into an immutable state object so that _valueRGBA and cache_function
+	 * only read final fields instead of querying the parameters per pixel.
+	 */
+	protected void prepare() {
+	}
 
 	
 	void cache_function(Vector4 out, TileCacheEntry[] in, int localX, int localY, float u, float v) {
 		out.set(1, 0, 0, 1);
 	}
+	
+	/**
+	 * Can be overwritten by channels that compute a whole cache tile at once
+	 * (for example filters that are more efficient as image operations than per
+	 * pixel). If it returns false the tile is computed per pixel with
+	 * cache_function.
+	 * 
+	 * @param out the tile to fill (including its border)
+	 * @param in the already computed tiles of the input channels
+	 * @return true if out was filled
+	 */
+	boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+		return false;
+	}
+
+	/**
+	 * Returns true for channels whose cache_function only samples each input
+	 * tile once at (localX, localY) and nothing else; chains of such channels
+	 * are fused by the CacheTileManager (see fusePointwise).
+	 */
+	boolean isPointwise() {
+		return false;
+	}
+	
+	/**
+	 * Returns true if the tiles of this channel are currently computed with a
+	 * TransferLUT by cache_tileFunction; cache_function computes the exact
+	 * function, so such a channel is not fused (see CacheTileManager).
+	 * Called after prepare.
+	 */
+	boolean usesTransferLUT() {
+		return false;
+	}
+	
+	/**
+	 * Returns true if the output of this channel is the same at every
+	 * position with the current parameters (see TextureGraphOptimizer).
+	 */
+	public final boolean isUniform() {
+		if (!isUniformIfInputsAre())
+			return false;
+		if (inputChannels != null) {
+			for (Channel c : inputChannels) {
+				if (!c.isUniform())
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the output of this channel is the same at every
+	 * position when all its inputs are. By default point-wise channels are.
+	 */
+	public boolean isUniformIfInputsAre() {
+		if (!isPointwise())
+			return false;
+		for (Channel c : inputChannels) {
+			if (c == null)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the index of the input channel that this channel outputs
+	 * unchanged with the current parameters or -1 if there is none (see
+	 * TextureGraphOptimizer).
+	 */
+	public int getIdentityInput() {
+		return -1;
+	}
+	
+	/**
+	 * Can be overwritten by channels that ChannelCompiler can inline: appends
+	 * java statements to code that declare the float variables out[0..3] and
+	 * set them to the output of this channel; the components of input i are
+	 * in the variables in[i][0..3]. Parameter values are not written as
+	 * literals but passed with compiler.constant so that the generated class
+	 * only depends on the structure of the graph. It is called after prepare
+	 * and must not have side effects besides appending to code and adding
+	 * constants.
+	 * 
+	 * @return false if this channel can not be compiled (it is then called
+	 *         through valueRGBA by the compiled code)
+	 */
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		return false;
+	}
 
 	/*
 	 * protected float _value1f(float u, float v) { return 0.0f; }
@@ -184,21 +595,36 @@ public abstract class Channel extends LocalParameterManager {
 
 
 	/**
-	 * Creates a full copy of the given channel by using an internal
-	 * StringWriter and by calling the saveChannel and loadChannel method
+	 * Creates a full copy of the given channel by creating a new channel of the
+	 * same class and copying all parameters (see
+	 * LocalParameterManager.copyParametersFrom); derived data is shared
+	 * with the original (see parametersCopied).
 	 * 
 	 * @param c
 	 * @return a full copy of the given channel as if it was loaded from disk
 	 */
 	public static Channel cloneChannel(Channel c) {
-		StringWriter sw = new StringWriter();
+		Channel ret = ChannelRegistry.create(c.getClass().getName());
+		if (ret == null) return null;
+		AbstractParam.beginSilent();
 		try {
-			saveChannel(sw, c);
-			sw.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+			ret.copyParametersFrom(c);
+		} finally {
+			AbstractParam.endSilent();
 		}
-		return loadChannel(new Scanner(sw.getBuffer().toString()));
+		ret.parametersCopied(c);
+		return ret;
+	}
+
+	/**
+	 * Called by cloneChannel after the parameters of source were silently
+	 * copied to this channel; the default calls parameterChanged(null) as
+	 * loadChannel does. Channels with expensive derived data override this to
+	 * share the data of source instead of computing it again; shared data
+	 * must then be replaced and never changed in place (copy-on-write).
+	 */
+	protected void parametersCopied(Channel source) {
+		parameterChanged(null);
 	}
 
 	/**
@@ -222,17 +648,31 @@ public abstract class Channel extends LocalParameterManager {
 		w.write("endparameters\n");
 	}
 
-	public static Channel loadChannel(Scanner s) {
+	public static Channel loadChannel(Tokenizer s) {
+		return loadChannel(s, true);
+	}
+
+	/**
+	 * Loads a channel saved by saveChannel.
+	 * 
+	 * @param initialize
+	 *            if false parameterChanged(null) is not called so that the
+	 *            caller can initialize the channel once its inputs are
+	 *            connected (see TextureGraph.addAll)
+	 * @return null if the channel could not be loaded
+	 */
+	public static Channel loadChannel(Tokenizer s, boolean initialize) {
+		Channel c;
+		AbstractParam.beginSilent();
 		try {
-			AbstractParam.GLOBAL_SILENT = true;
-			
 			String name = s.next();
 			
-			// This is an internal conversion to be still compatible with older file formats and name changes
-			// !!TODO: as soon as the file format is final or a huge change happened this should be removed
-			name = name.replace("FilterBrightnessContrast", "FilterColorCorrect");
-			
-			Channel c = (Channel) Class.forName(name).newInstance();
+			// old names are registered as aliases
+			c = ChannelRegistry.create(name);
+			if (c == null) {
+				while (!s.next().equals("endparameters")); // skip the unknown channel
+				return null;
+			}
 			// Logger.log(null, "loadChannel " + c);
 
 			String t;
@@ -244,18 +684,10 @@ public abstract class Channel extends LocalParameterManager {
 					TextureEditor.logger.warn("Loading of param " + t + " failed");
 				}
 			}
-			AbstractParam.GLOBAL_SILENT = false;
-			c.parameterChanged(null);
-			return c;
-		} catch (InstantiationException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
 		} finally {
-			AbstractParam.GLOBAL_SILENT = false;
+			AbstractParam.endSilent();
 		}
-		return null;
+		if (initialize) c.parameterChanged(null);
+		return c;
 	}
 }
@@ -19,4 +19,14 @@ package engine.graphics.synthesis.texture;
 
 public interface ChannelChangeListener {
 	public void channelChanged(Channel source);
+	
+	/**
+	 * Called when source changed before any channelChanged of this change is
+	 * called. Listeners that pass the change on to other channels (as the
+	 * connections of a texture graph) do this here with
+	 * Channel.inputChanged so that all channels downstream of source are
+	 * invalidated before the listeners recompute anything.
+	 */
+	public default void channelInvalidated(Channel source) {
+	}
 }
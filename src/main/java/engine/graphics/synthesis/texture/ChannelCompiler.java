@@ -0,0 +1,280 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package engine.graphics.synthesis.texture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.mystictri.neotextureedit.TextureEditor;
+
+import engine.base.Vector4;
+
+/**
+ * Compiles a channel and everything upstream of it into a single generated
+ * class. Channels that implement Channel.compile are inlined; their
+ * (prepared) parameters are passed to the constructor of the generated class
+ * so its source only depends on the structure of the graph. All other
+ * channels are called through valueRGBA as before. The most recently used
+ * generated classes are cached by their source so that evaluating the same
+ * graph again (for example after changing a parameter) does not compile
+ * again.
+ *
+ * The compilation needs the system java compiler (a JDK); if it is not
+ * available or the generated source of a channel fails to compile, compile
+ * returns null and the channel has to be evaluated directly.
+ */
+public final class ChannelCompiler {
+
+	/** The interface of the generated classes; valueRGBA is the same as Channel.valueRGBA */
+	public interface CompiledChannel {
+		Vector4 valueRGBA(float u, float v);
+	}
+
+	/** The maximum number of generated classes that are kept */
+	static final int MAX_CACHED_CLASSES = 64;
+
+	// the generated classes by their source in access order; a null value
+	// marks a source that failed to compile
+	private static final LinkedHashMap<String, Class<?>> compiledClasses = new LinkedHashMap<String, Class<?>>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+			return size() > MAX_CACHED_CLASSES;
+		}
+	};
+	private static volatile boolean compilerUnavailable = false;
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	private final StringBuilder code = new StringBuilder();
+	private final List<Float> constants = new ArrayList<Float>();
+	private final HashMap<Channel, String[]> variables = new HashMap<Channel, String[]>();
+	private final List<Channel> leaves = new ArrayList<Channel>();
+	private int numInlined = 0;
+	private int numVariables = 0;
+
+	private ChannelCompiler() {
+	}
+
+	/**
+	 * Compiles the given channel; it has to be prepared (see
+	 * Channel.prepareEvaluation) and the result is only valid as long as no
+	 * parameter in the graph changes.
+	 *
+	 * @return null if the channel could not be compiled
+	 */
+	public static CompiledChannel compile(Channel c) {
+		if (compilerUnavailable || !c.chechkInputChannels()) return null;
+		c.prepareEvaluation();
+
+		ChannelCompiler cc = new ChannelCompiler();
+		String[] out = cc.visit(c);
+		if (cc.numInlined == 0) return null;
+
+		String body = cc.code.toString();
+
+		try {
+			Class<?> cls;
+			boolean known;
+			synchronized (compiledClasses) {
+				known = compiledClasses.containsKey(body);
+				cls = compiledClasses.get(body);
+			}
+			if (!known) {
+				// javac runs without holding the lock; if two threads compile the
+				// same source at once both classes work and the last one is kept
+				String name = "CompiledChannel" + classCounter.getAndIncrement();
+				cls = compileSource(name, source(name, body, out));
+				if (compilerUnavailable) return null;
+				synchronized (compiledClasses) {
+					compiledClasses.put(body, cls);
+				}
+			}
+			if (cls == null) return null;
+			Channel[] leaves = cc.leaves.toArray(new Channel[cc.leaves.size()]);
+			float[] constants = new float[cc.constants.size()];
+			for (int i = 0; i < constants.length; i++) constants[i] = cc.constants.get(i);
+			return (CompiledChannel) cls.getConstructor(Channel[].class, float[].class).newInstance(leaves, constants);
+		} catch (Exception e) {
+			TextureEditor.logger.warn("Compiling " + c + " failed: " + e);
+			return null;
+		}
+	}
+
+	/** Clears the cache of the generated classes */
+	public static void clearCache() {
+		synchronized (compiledClasses) {
+			compiledClasses.clear();
+		}
+	}
+
+	/**
+	 * Adds f to the constants passed to the generated class.
+	 * 
+	 * @return the java expression that reads the constant in the generated code
+	 */
+	public String constant(float f) {
+		constants.add(f);
+		return "k[" + (constants.size() - 1) + "]";
+	}
+
+	/** Appends the declaration of the float variable var with the value of expr to code */
+	static void assign(StringBuilder code, String var, String expr) {
+		code.append("\t\tfloat ").append(var).append(" = ").append(expr).append(";\n");
+	}
+
+	/** Appends code that clamps the float variable var to [0,1] (as Vector4.clamp) */
+	static void clamp(StringBuilder code, String var) {
+		code.append("\t\tif (").append(var).append(" < 0.0f) ").append(var).append(" = 0.0f;\n");
+		code.append("\t\tif (").append(var).append(" > 1.0f) ").append(var).append(" = 1.0f;\n");
+	}
+
+	// returns the names of the four variables that hold the output of c
+	private String[] visit(Channel c) {
+		String[] out = variables.get(c);
+		if (out != null) return out;
+
+		final int id = numVariables++;
+		out = new String[4];
+		for (int i = 0; i < 4; i++) out[i] = "n" + id + "_" + i;
+
+		final int numInputs = c.getNumInputChannels();
+		final String[][] in = new String[numInputs][];
+		for (int i = 0; i < numInputs; i++) in[i] = new String[] {"x", "y", "z", "w"};
+
+		// compile has no side effects; the first call only checks if c is supported
+		if (c.compile(new ChannelCompiler(), new StringBuilder(), out, in)) {
+			for (int i = 0; i < numInputs; i++) in[i] = visit(c.inputChannels[i]);
+			c.compile(this, code.append("\t\t// ").append(c.getName()).append("\n"), out, in);
+			numInlined++;
+		} else {
+			int leaf = leaves.size();
+			leaves.add(c);
+			code.append("\t\tVector4 t").append(id).append(" = leaves[").append(leaf).append("].valueRGBA(u, v);\n");
+			assign(code, out[0], "t" + id + ".x");
+			assign(code, out[1], "t" + id + ".y");
+			assign(code, out[2], "t" + id + ".z");
+			assign(code, out[3], "t" + id + ".w");
+		}
+		variables.put(c, out);
+		return out;
+	}
+
+	private static String source(String name, String body, String[] out) {
+		return "import engine.base.FMath;\n" +
+			"import engine.base.Vector4;\n" +
+			"import engine.graphics.synthesis.texture.Channel;\n" +
+			"import engine.graphics.synthesis.texture.ChannelCompiler;\n" +
+			"public final class " + name + " implements ChannelCompiler.CompiledChannel {\n" +
+			"\tprivate final Channel[] leaves;\n" +
+			"\tprivate final float[] k;\n" +
+			"\tpublic " + name + "(Channel[] leaves, float[] k) { this.leaves = leaves; this.k = k; }\n" +
+			"\tpublic Vector4 valueRGBA(float u, float v) {\n" +
+			"\t\tu = u - FMath.ffloor(u);\n" +
+			"\t\tv = v - FMath.ffloor(v);\n" +
+			body +
+			"\t\treturn new Vector4(" + out[0] + ", " + out[1] + ", " + out[2] + ", " + out[3] + ");\n" +
+			"\t}\n" +
+			"}\n";
+	}
+
+	// the class path for the generated source: the location of the engine
+	// classes (which is not always on java.class.path) and java.class.path
+	private static String classPath() {
+		String cp = System.getProperty("java.class.path");
+		try {
+			CodeSource cs = ChannelCompiler.class.getProtectionDomain().getCodeSource();
+			if (cs != null && cs.getLocation() != null) {
+				String engine = new File(cs.getLocation().toURI()).getPath();
+				cp = (cp == null || cp.isEmpty()) ? engine : engine + File.pathSeparator + cp;
+			}
+		} catch (Exception e) {
+			// keep java.class.path
+		}
+		return cp;
+	}
+
+	// compiles the source in memory and loads the class with a new class
+	// loader; returns null if it does not compile
+	private static Class<?> compileSource(final String name, final String source) throws ClassNotFoundException, IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			TextureEditor.logger.warn("No java compiler available; graphs are not compiled");
+			compilerUnavailable = true;
+			return null;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JavaFileObject src = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		try (StandardJavaFileManager std = compiler.getStandardFileManager(null, null, null)) {
+			ForwardingJavaFileManager<StandardJavaFileManager> fm = new ForwardingJavaFileManager<StandardJavaFileManager>(std) {
+				public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+					return new SimpleJavaFileObject(URI.create("mem:///" + className + ".class"), kind) {
+						public OutputStream openOutputStream() {
+							return bytes;
+						}
+					};
+				}
+			};
+			List<String> options = Arrays.asList("-classpath", classPath(), "-g:none");
+			// collects the errors instead of printing them to stderr
+			DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+			if (!compiler.getTask(null, fm, diagnostics, options, null, Arrays.asList(src)).call()) {
+				StringBuilder msg = new StringBuilder("Compiling the generated source failed; the channel is evaluated directly");
+				for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+					msg.append('\n').append(d.getKind()).append(" at line ").append(d.getLineNumber()).append(": ").append(d.getMessage(null));
+				}
+				TextureEditor.logger.warn(msg.toString());
+				TextureEditor.logger.debug("The generated source was:\n" + source);
+				return null;
+			}
+		}
+
+		final byte[] b = bytes.toByteArray();
+		ClassLoader loader = new ClassLoader(ChannelCompiler.class.getClassLoader()) {
+			protected Class<?> findClass(String n) throws ClassNotFoundException {
+				if (n.equals(name)) return defineClass(n, b, 0, b.length);
+				return super.findClass(n);
+			}
+		};
+		return loader.loadClass(name);
+	}
+}
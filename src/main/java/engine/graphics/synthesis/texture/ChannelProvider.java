@@ -0,0 +1,29 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package engine.graphics.synthesis.texture;
+
+/**
+ * A service (see java.util.ServiceLoader) that adds channels to the
+ * ChannelRegistry. Third party channels are made available by listing the
+ * implementing class in
+ * META-INF/services/engine.graphics.synthesis.texture.ChannelProvider
+ * and calling ChannelRegistry.register in registerChannels.
+ */
+public interface ChannelProvider {
+	public void registerChannels();
+}
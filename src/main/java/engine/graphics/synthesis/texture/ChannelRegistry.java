@@ -0,0 +1,137 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package engine.graphics.synthesis.texture;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Vector;
+import java.util.function.Supplier;
+
+import com.mystictri.neotextureedit.TextureEditor;
+
+/**
+ * Creates channels by their class name (as stored in the saved graphs)
+ * without reflection. All channels of this package are registered here;
+ * further channels are registered by the ChannelProvider services found
+ * on the class path.
+ */
+public final class ChannelRegistry {
+	private static final HashMap<String, Supplier<? extends Channel>> factories = new HashMap<String, Supplier<? extends Channel>>();
+	private static final Vector<Class<? extends Channel>> listedClasses = new Vector<Class<? extends Channel>>();
+
+	static {
+		// in the order of the create menu of the editor
+		register(FilterBlend.class, FilterBlend::new);
+		register(FilterColorCorrect.class, FilterColorCorrect::new);
+		register(FilterColorize.class, FilterColorize::new);
+		register(FilterEmboss.class, FilterEmboss::new);
+		register(FilterMask.class, FilterMask::new);
+		register(FilterNormalMap.class, FilterNormalMap::new);
+		register(FilterWarp.class, FilterWarp::new);
+		register(PatternBrick.class, PatternBrick::new);
+		register(PatternCellular.class, PatternCellular::new);
+		register(PatternChecker.class, PatternChecker::new);
+		register(PatternConstantColor.class, PatternConstantColor::new);
+		register(PatternGradient.class, PatternGradient::new);
+		register(PatternPerlinNoise.class, PatternPerlinNoise::new);
+		register(PatternTile.class, PatternTile::new);
+		register(PatternFunction.class, PatternFunction::new);
+		register(PatternBitmap.class, PatternBitmap::new);
+		register(FilterIlluminate.class, FilterIlluminate::new);
+		register(FilterCombine.class, FilterCombine::new);
+		register(FilterTransform.class, FilterTransform::new);
+		register(FilterBlur.class, FilterBlur::new);
+		register(FilterModulus.class, FilterModulus::new);
+		register(FilterMath1.class, FilterMath1::new);
+		// loadable but not offered for creation
+		registerUnlisted(Pattern.class, Pattern::new);
+		registerUnlisted(PatternSynthesis.class, PatternSynthesis::new);
+		// old names of renamed channels
+		registerAlias("engine.graphics.synthesis.texture.FilterBrightnessContrast", FilterColorCorrect.class);
+
+		// a broken provider must not make the registry (and so all channels)
+		// unusable
+		Iterator<ChannelProvider> providers = ServiceLoader.load(ChannelProvider.class).iterator();
+		while (hasNextProvider(providers)) {
+			try {
+				providers.next().registerChannels();
+			} catch (ServiceConfigurationError | RuntimeException | LinkageError e) {
+				TextureEditor.logger.error("Failed to load a channel provider: " + e);
+			}
+		}
+	}
+
+	private ChannelRegistry() {
+	}
+
+	// false if the provider configuration files can not be read
+	private static boolean hasNextProvider(Iterator<ChannelProvider> providers) {
+		try {
+			return providers.hasNext();
+		} catch (ServiceConfigurationError e) {
+			TextureEditor.logger.error("Failed to look up the channel providers: " + e);
+			return false;
+		}
+	}
+
+	/** Registers a channel that can be created by the user (see getListedClasses) */
+	public static synchronized <T extends Channel> void register(Class<T> type, Supplier<T> factory) {
+		registerUnlisted(type, factory);
+		if (!listedClasses.contains(type))
+			listedClasses.add(type);
+	}
+
+	/** Registers a channel that can only be loaded */
+	public static synchronized <T extends Channel> void registerUnlisted(Class<T> type, Supplier<T> factory) {
+		factories.put(type.getName(), factory);
+	}
+
+	/** Loads channels saved under the (old) class name alias as the channel type */
+	public static synchronized void registerAlias(String alias, Class<? extends Channel> type) {
+		Supplier<? extends Channel> factory = factories.get(type.getName());
+		if (factory == null)
+			throw new IllegalArgumentException(type.getName() + " is not registered");
+		factories.put(alias, factory);
+	}
+
+	/**
+	 * Creates a new channel with the default parameters.
+	 * 
+	 * @param name
+	 *            the class name or a registered alias
+	 * @return null if no channel is registered with this name
+	 */
+	public static Channel create(String name) {
+		Supplier<? extends Channel> factory;
+		synchronized (ChannelRegistry.class) {
+			factory = factories.get(name);
+		}
+		if (factory == null) {
+			TextureEditor.logger.error("Unknown channel " + name);
+			return null;
+		}
+		return factory.get();
+	}
+
+	/** @return the registered channels that can be created by the user in the order of registration */
+	public static synchronized Vector<Class<? extends Channel>> getListedClasses() {
+		return new Vector<Class<? extends Channel>>(listedClasses);
+	}
+}
@@ -19,6 +19,7 @@ package engine.graphics.synthesis.texture;
 
 import engine.base.Vector4;
 import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+import engine.parameters.AbstractParam;
 import engine.parameters.BoolParam;
 import engine.parameters.EnumParam;
 import engine.parameters.FloatParam;
@@ -78,37 +79,106 @@ public final class FilterBlend extends Channel {
 		return OutputType.SCALAR;
 	}
 	
+	/**
+	 * One of the layer functions: apply sets color (initialized to c1) to
+	 * the unclamped result; d is the derivative of one RGB component.
+	 */
+	static abstract class BlendFunction {
+		abstract void apply(Vector4 color, Vector4 c0, Vector4 c1);
+		abstract float d(float a, float b, float da, float db);
+		// the java source of one RGB component of apply (see ChannelCompiler)
+		abstract String source(String a, String b);
+	}
+	
+	static final class Normal extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { }
+		float d(float a, float b, float da, float db) { return db; }
+		String source(String a, String b) { return b; }
+	}
+	
+	static final class Multiply extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.multComp_ip(c0); }
+		float d(float a, float b, float da, float db) { return da*b + a*db; }
+		String source(String a, String b) { return b + " * " + a; }
+	}
+	
+	static final class Divide extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.multComp_ip(1/(c0.x + 1), 1/(c0.y + 1), 1/(c0.z + 1), 1); }
+		float d(float a, float b, float da, float db) { return db/(a + 1) - b*da/((a + 1)*(a + 1)); }
+		String source(String a, String b) { return b + " * (1/(" + a + " + 1))"; }
+	}
+	
+	static final class Screen extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.set(1-(1-c0.x)*(1-c1.x), 1-(1-c0.y)*(1-c1.y), 1-(1-c0.z)*(1-c1.z), 1); }
+		float d(float a, float b, float da, float db) { return da*(1 - b) + db*(1 - a); }
+		String source(String a, String b) { return "1-(1-" + a + ")*(1-" + b + ")"; }
+	}
+	
+	static final class Overlay extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.set(c0.x*(c0.x + 2*(c1.x)*(1-c0.x)), c0.y*(c0.y + 2*(c1.y)*(1-c0.y)), c0.z*(c0.z + 2*(c1.z)*(1-c0.z)), 1); }
+		float d(float a, float b, float da, float db) { return da*(2*a + 2*b - 4*a*b) + db*(2*a - 2*a*a); }
+		String source(String a, String b) { return a + "*(" + a + " + 2*(" + b + ")*(1-" + a + "))"; }
+	}
+	
+	static final class Dodge extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.set(c0.x/((1-c1.x)+1), c0.y/((1-c1.y)+1), c0.z/((1-c1.z)+1),1); }
+		float d(float a, float b, float da, float db) { return da/((1 - b) + 1) + a*db/(((1 - b) + 1)*((1 - b) + 1)); }
+		String source(String a, String b) { return a + "/((1-" + b + ")+1)"; }
+	}
+	
+	static final class Burn extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.set(1-((1-c0.x)/(c1.x+1)), 1-((1-c0.y)/(c1.y+1)), 1-((1-c0.z)/(c1.z+1)), 1); }
+		float d(float a, float b, float da, float db) { return da/(b + 1) + (1 - a)*db/((b + 1)*(b + 1)); }
+		String source(String a, String b) { return "1-((1-" + a + ")/(" + b + "+1))"; }
+	}
+	
+	static final class Difference extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.set(c0).sub_ip(c1).abs_ip(); }
+		float d(float a, float b, float da, float db) { return (a >= b) ? (da - db) : (db - da); }
+		String source(String a, String b) { return "FMath.abs(" + a + " - " + b + ")"; }
+	}
+	
+	static final class Addition extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.add_ip(c0); }
+		float d(float a, float b, float da, float db) { return da + db; }
+		String source(String a, String b) { return b + " + " + a; }
+	}
+	
+	static final class Subtract extends BlendFunction {
+		void apply(Vector4 color, Vector4 c0, Vector4 c1) { color.set(c0).sub_ip(c1); }
+		float d(float a, float b, float da, float db) { return da - db; }
+		String source(String a, String b) { return a + " - " + b; }
+	}
+	
+	// indexed by the enum position of blendFunction
+	static final BlendFunction[] BLEND_FUNCTIONS = {
+		new Normal(), new Multiply(), new Divide(), new Screen(), new Overlay(),
+		new Dodge(), new Burn(), new Difference(), new Addition(), new Subtract()
+	};
+	
+	// resolved from blendFunction in parameterChanged
+	BlendFunction selectedFunction = BLEND_FUNCTIONS[0];
+	
+	public void parameterChanged(AbstractParam source) {
+		if (source == null || source == blendFunction)
+			selectedFunction = BLEND_FUNCTIONS[blendFunction.getEnumPos()];
+		super.parameterChanged(source);
+	}
+	
 	private final Vector4 _function(Vector4 c0, Vector4 c1) {
+		return _function(c0, c1, new Vector4());
+	}
+	
+	// color is set to the (clamped) result of the blending function
+	private final Vector4 _function(Vector4 c0, Vector4 c1, final Vector4 color) {
 		float alpha = c1.w;
 		if (invertAlpha.get()) alpha = 1.0f - alpha;
 		
-		final Vector4 color = new Vector4(c1);
-		final int func = blendFunction.getEnumPos();
-		
+		color.set(c1);
 		alpha *= (opacity.get()); 
 		
 		// apply the blending function without alpha:
-		if (func == 0) { // normal
-			// do nothing
-		} else if (func == 1) { // Multiply
-			color.multComp_ip(c0);
-		} else if (func == 2) { // Divide 
-			color.multComp_ip(1/(c0.x + 1), 1/(c0.y + 1), 1/(c0.z + 1), 1);
-		} else if (func == 3) { // Screen 
-			color.set(1-(1-c0.x)*(1-c1.x), 1-(1-c0.y)*(1-c1.y), 1-(1-c0.z)*(1-c1.z), 1);
-		} else if (func == 4) { // Overlay
-			color.set(c0.x*(c0.x + 2*(c1.x)*(1-c0.x)), c0.y*(c0.y + 2*(c1.y)*(1-c0.y)), c0.z*(c0.z + 2*(c1.z)*(1-c0.z)), 1);
-		} else if (func == 5) { // Dodge
-			color.set(c0.x/((1-c1.x)+1), c0.y/((1-c1.y)+1), c0.z/((1-c1.z)+1),1); 
-		} else if (func == 6) { // Burn
-			color.set(1-((1-c0.x)/(c1.x+1)), 1-((1-c0.y)/(c1.y+1)), 1-((1-c0.z)/(c1.z+1)), 1);
-		} else if (func == 7) { // Difference
-			color.set(c0).sub_ip(c1).abs_ip();
-		} else if (func == 8) { // Addition
-			color.add_ip(c0);
-		} else if (func == 9) { // Subtract
-			color.set(c0).sub_ip(c1);
-		} 
+		selectedFunction.apply(color, c0, c1);
 		
 		color.clamp(0.0f, 1.0f);
 		
@@ -123,6 +193,10 @@ public final class FilterBlend extends Channel {
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
 		out.set(_function(caches[0].sample(localX, localY), caches[1].sample(localX, localY)));
 	}
+
+	boolean isPointwise() {
+		return true;
+	}
 	
 	
 	
@@ -134,4 +208,61 @@ public final class FilterBlend extends Channel {
 	protected Vector4 _valueRGBA(float u, float v) {
 		return _function(inputChannels[0].valueRGBA(u, v), inputChannels[1].valueRGBA(u, v));
 	}
+	
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		final String alpha = out[3] + "_alpha";
+		String a = in[1][3];
+		if (invertAlpha.get()) a = "1.0f - " + a;
+		ChannelCompiler.assign(code, alpha, "(" + a + ") * " + compiler.constant(opacity.get()));
+		for (int i = 0; i < 3; i++) {
+			final String color = out[i] + "_color";
+			ChannelCompiler.assign(code, color, selectedFunction.source(in[0][i], in[1][i]));
+			ChannelCompiler.clamp(code, color);
+			ChannelCompiler.assign(code, out[i], in[0][i] + " * (1.0f - " + alpha + ") + " + alpha + " * " + color);
+		}
+		ChannelCompiler.assign(code, out[3], in[0][3]);
+		return true;
+	}
+	
+	public int getIdentityInput() {
+		return (opacity.get() == 0.0f) ? 0 : -1;
+	}
+	
+	private static void blend_d(BlendFunction func, Vector4 c0, Vector4 c1, Vector4 color, float alpha, float dalpha, Vector4 d0, Vector4 d1, Vector4 out) {
+		// the clamped components have derivative 0
+		float dx = (color.x <= 0.0f || color.x >= 1.0f) ? 0.0f : func.d(c0.x, c1.x, d0.x, d1.x);
+		float dy = (color.y <= 0.0f || color.y >= 1.0f) ? 0.0f : func.d(c0.y, c1.y, d0.y, d1.y);
+		float dz = (color.z <= 0.0f || color.z >= 1.0f) ? 0.0f : func.d(c0.z, c1.z, d0.z, d1.z);
+		// d/du [(1-alpha)*c0 + alpha*color] = (1-alpha)*c0' + alpha*color' + alpha'*(color - c0)
+		out.x = (1.0f - alpha)*d0.x + alpha*dx + dalpha*(color.x - c0.x);
+		out.y = (1.0f - alpha)*d0.y + alpha*dy + dalpha*(color.y - c0.y);
+		out.z = (1.0f - alpha)*d0.z + alpha*dz + dalpha*(color.z - c0.z);
+		out.w = d0.w;
+	}
+	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		final Vector4 c0 = new Vector4(), c0u = new Vector4(), c0v = new Vector4();
+		final Vector4 c1 = new Vector4(), c1u = new Vector4(), c1v = new Vector4();
+		inputChannels[0].valueRGBA_d(u, v, c0, c0u, c0v);
+		inputChannels[1].valueRGBA_d(u, v, c1, c1u, c1v);
+		
+		final BlendFunction func = selectedFunction;
+		float alpha = c1.w;
+		float alphaU = c1u.w;
+		float alphaV = c1v.w;
+		if (invertAlpha.get()) {
+			alpha = 1.0f - alpha;
+			alphaU = -alphaU;
+			alphaV = -alphaV;
+		}
+		alpha *= opacity.get();
+		alphaU *= opacity.get();
+		alphaV *= opacity.get();
+		
+		final Vector4 color = new Vector4();
+		val.set(_function(new Vector4(c0), c1, color));
+		blend_d(func, c0, c1, color, alpha, alphaU, c0u, c1u, du);
+		blend_d(func, c0, c1, color, alpha, alphaV, c0v, c1v, dv);
+		return true;
+	}
 }
@@ -13,7 +13,7 @@ public class FilterBlur extends Channel {
 	EnumParam weightFunction = CreateLocalEnumParam("Weight", "Gaussian,Box");
 	FloatParam anisotropy = CreateLocalFloatParam("Anisotropy", 0.0f, 0.0f, 1.0f).setDefaultIncrement(0.125f);
 	FloatParam angle = CreateLocalFloatParam("Angle", 0.0f, 0.0f, 180.0f).setDefaultIncrement(30.0f);
-
+	
 	public String getName() {
 		return "Blur";
 	}
@@ -25,8 +25,10 @@ public class FilterBlur extends Channel {
 	
 	public String getHelpText() {
 		return "Basic Blur Filter \n" +
-		"Warning: This filter can be very SLOW. \n" +
-		"In the current implementation it uses a fixed # Samples\n" +
+		"A blur without anisotropy (and an angle of 0 or 90) uses a\n" +
+		"separable filter whose cost is independent of the radius.\n" +
+		"Warning: Otherwise this filter can be very SLOW. \n" +
+		"It then uses a fixed # Samples\n" +
 		"independent of the filter radius or output resolution.\n\n" +
 		"radius: the blur radius in % of the image width.\n" + 
 		"anisotropy: 0: no anisotropy 1:full anisotropy.\n" +
@@ -42,46 +44,88 @@ public class FilterBlur extends Channel {
 	}
 	
 	
-	private Vector4 performFilter(Vector4 out, TileCacheEntry[] caches, float u, float v) {
+	/**
+	 * The parameters of the stochastic blur and its sample offsets; snapshot
+	 * in prepare so the per pixel loop only reads final fields.
+	 */
+	static final class State {
+		final float r;
+		final boolean gaussian;
+		final boolean fastMath;
+		// true if the filter has no anisotropy and is axis aligned (see cache_tileFunction)
+		final boolean separable;
+		final float anisoScale;
+		final float rotU, rotV;
+		// radical inverse sample positions in [-1, 1] (base 2 and base 3)
+		final float[] sampleU, sampleV;
+		
+		State(FilterBlur f) {
+			r = f.radius.get()/100.0f;
+			gaussian = f.weightFunction.getEnumPos() == 0 && r > 0.0f;
+			fastMath = f.fastMath;
+			anisoScale = 1.0f - f.anisotropy.get();
+			rotU = FMath.cos(FMath.PI*f.angle.get()/180.0f);
+			rotV = FMath.sin(FMath.PI*f.angle.get()/180.0f);
+			separable = anisoScale == 1.0f && f.angle.get() % 90.0f == 0.0f;
+			final int n = f.numSamples.get();
+			sampleU = new float[n];
+			sampleV = new float[n];
+			for (int i = 0; i < n; i++) {
+				sampleU[i] = FMath.radicalInverse_vdC(2, i)*2.0f - 1.0f;
+				sampleV[i] = FMath.radicalInverse_vdC(3, i)*2.0f - 1.0f;
+			}
+		}
+	}
+	
+	State state;
+	
+	protected void prepare() {
+		state = new State(this);
+	}
+	
+	// source is the full resolution cache of the input or null to evaluate the input directly
+	private Vector4 performFilter(Vector4 out, TileCacheEntry source, float u, float v) {
+		final State s = state;
 		Vector4 val = new Vector4();
 		
-		float r = radius.get()/100.0f;
+		final float r = s.r;
 		float weightSum = 0.0f;
 		
-		float rotU = FMath.cos(FMath.PI*angle.get()/180.0f);
-		float rotV = FMath.sin(FMath.PI*angle.get()/180.0f);
+		final float rotU = s.rotU;
+		final float rotV = s.rotV;
+		final int n = s.sampleU.length;
 		
-		if (weightFunction.getEnumPos() == 0 && r > 0.0f) { // Gaussian
-			for (int i = 0; i < numSamples.get(); i++) {
-				float du = (FMath.radicalInverse_vdC(2, i)*2.0f - 1.0f)*r;
-				float dv = (FMath.radicalInverse_vdC(3, i)*2.0f - 1.0f)*r;
+		if (s.gaussian) { // Gaussian
+			for (int i = 0; i < n; i++) {
+				float du = s.sampleU[i]*r;
+				float dv = s.sampleV[i]*r;
 				// apply anisotropy
-				du *= (1.0f - anisotropy.get());
+				du *= s.anisoScale;
 				float nu = du*rotU - dv*rotV;
 				float nv = dv*rotU + du*rotV;
 				du = nu;
 				dv = nv;
 
 				float l = FMath.sqrt(du*du + dv*dv);
-				float w = FMath.exp(-(l/r));
+				float w = FMath.exp(-(l/r), s.fastMath);
 				
 				
-				if (caches != null) val.add_ip(caches[0].sample_Normalized(du+u, dv+v).mult_ip(w));
+				if (source != null) val.add_ip(source.sample_Normalized(du+u, dv+v).mult_ip(w));
 				else val.add_ip(inputChannels[0].valueRGBA(du+u, dv+v).mult_ip(w));
 				weightSum += w;
 			}
 		} else { // Box
-			for (int i = 0; i < numSamples.get(); i++) {
-				float du = (FMath.radicalInverse_vdC(2, i)*2.0f - 1.0f)*r;
-				float dv = (FMath.radicalInverse_vdC(3, i)*2.0f - 1.0f)*r;
+			for (int i = 0; i < n; i++) {
+				float du = s.sampleU[i]*r;
+				float dv = s.sampleV[i]*r;
 				// apply anisotropy
-				du *= (1.0f - anisotropy.get());
+				du *= s.anisoScale;
 				float nu = du*rotU - dv*rotV;
 				float nv = dv*rotU + du*rotV;
 				du = nu;
 				dv = nv;
 
-				if (caches != null) val.add_ip(caches[0].sample_Normalized(du+u, dv+v));
+				if (source != null) val.add_ip(source.sample_Normalized(du+u, dv+v));
 				else val.add_ip(inputChannels[0].valueRGBA(du+u, dv+v));
 				weightSum += 1.0f;
 			}
@@ -95,9 +139,138 @@ public class FilterBlur extends Channel {
 	
 
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches,	int localX, int localY, float u, float v) {
-		performFilter(out, caches, u, v);
+		performFilter(out, CacheTileManager.getFullResolutionCache(inputChannels[0], caches[0]), u, v);
 	}
-
+	
+	
+	/**
+	 * The standard deviation (per axis, relative to the radius) of the
+	 * Gaussian weighting exp(-l/r) that performFilter uses on the square
+	 * [-r, r]^2; computed numerically.
+	 */
+	static final float GAUSSIAN_SIGMA = 0.5244467f;
+	
+	/**
+	 * A blur without anisotropy and an angle of 0 or 90 is computed as
+	 * separable image filter on the full resolution input with box filter
+	 * passes that use running sums so the cost is independent of the radius.
+	 * For the Box weighting one pass per axis integrates exactly the kernel
+	 * the stochastic filter samples. The Gaussian weighting is approximated by
+	 * three box passes per axis with the same standard deviation
+	 * (GAUSSIAN_SIGMA). Other blurs use the stochastic filter on the full
+	 * resolution input.
+	 */
+	boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+		final int xres = out.globalXres;
+		final int yres = out.globalYres;
+		final int startX = out.px * out.xres - out.border;
+		final int startY = out.py * out.yres - out.border;
+		final int w = out.xres + 2 * out.border;
+		final int h = out.yres + 2 * out.border;
+		
+		if (!state.separable) {
+			final TileCacheEntry source = CacheTileManager.getFullResolutionCache(inputChannels[0], in[0]);
+			final Vector4 temp = new Vector4();
+			for (int y = 0, idx = 0; y < h; y++) {
+				float v = (float) (startY + y) / (float) yres;
+				v = v - FMath.ffloor(v);
+				for (int x = 0; x < w; x++, idx++) {
+					float u = (float) (startX + x) / (float) xres;
+					u = u - FMath.ffloor(u);
+					out.put(idx, performFilter(temp, source, u, v));
+				}
+			}
+			return true;
+		}
+		
+		if (out.xres == xres && out.yres == yres && out.px == 0 && out.py == 0 && out.border == 0) {
+			computeSeparableBlur(CacheTileManager.getFullResolutionCache(inputChannels[0], in[0]), out);
+			return true;
+		}
+		
+		// a part of the image: copy it from the full resolution cache of this channel
+		final TileCacheEntry full = CacheTileManager.getFullResolutionCache(this, out);
+		for (int y = 0, idx = 0; y < h; y++) {
+			int gy = (startY + y) % yres;
+			if (gy < 0) gy += yres;
+			for (int x = 0; x < w; x++, idx++) {
+				int gx = (startX + x) % xres;
+				if (gx < 0) gx += xres;
+				out.put(idx, full.sample(gx, gy));
+			}
+		}
+		return true;
+	}
+	
+	// blurs the full resolution input into the full resolution out
+	private void computeSeparableBlur(TileCacheEntry input, TileCacheEntry out) {
+		final int xres = input.xres;
+		final int yres = input.yres;
+		final float[] img = new float[xres * yres * 4];
+		for (int y = 0, i = 0; y < yres; y++) {
+			for (int x = 0; x < xres; x++, i += 4) {
+				Vector4 c = input.sample(x, y);
+				img[i + 0] = c.x;
+				img[i + 1] = c.y;
+				img[i + 2] = c.z;
+				img[i + 3] = c.w;
+			}
+		}
+		
+		// three boxes of half width h have the variance h^2
+		final float r = state.gaussian ? state.r * GAUSSIAN_SIGMA : state.r;
+		final int passes = state.gaussian ? 3 : 1;
+		final float hx = r * xres;
+		final float hy = r * yres;
+		
+		final int n = Math.max(xres, yres);
+		final float[] line = new float[n * 4];
+		final double[] prefix = new double[(n + 1) * 4];
+		for (int pass = 0; pass < passes; pass++) {
+			for (int y = 0; y < yres; y++) boxFilterLine(img, y * xres * 4, 4, xres, hx, line, prefix);
+			for (int x = 0; x < xres; x++) boxFilterLine(img, x * 4, xres * 4, yres, hy, line, prefix);
+		}
+		
+		for (int i = 0; i < xres * yres; i++) {
+			out.put(i, img[i * 4 + 0], img[i * 4 + 1], img[i * 4 + 2], img[i * 4 + 3]);
+		}
+	}
+	
+	/**
+	 * Periodic box filter with (continuous) half width h in pixels on a line
+	 * of n RGBA pixels starting at offset with the given stride.
+	 */
+	private static void boxFilterLine(float[] img, int offset, int stride, int n, float h, float[] line, double[] prefix) {
+		if (h < 0.5f / 256.0f) return;
+		
+		for (int i = 0; i < n; i++) {
+			for (int c = 0; c < 4; c++) {
+				float val = img[offset + i * stride + c];
+				line[i * 4 + c] = val;
+				prefix[(i + 1) * 4 + c] = prefix[i * 4 + c] + val;
+			}
+		}
+		
+		final float norm = 1.0f / (2.0f * h);
+		for (int i = 0; i < n; i++) {
+			float center = i + 0.5f;
+			for (int c = 0; c < 4; c++) {
+				img[offset + i * stride + c] = (float)(integral(line, prefix, n, c, center + h) - integral(line, prefix, n, c, center - h)) * norm;
+			}
+		}
+	}
+	
+	/**
+	 * The integral of the periodically repeated, piecewise constant line from 0 to t.
+	 */
+	private static double integral(float[] line, double[] prefix, int n, int c, float t) {
+		int k = FMath.ffloor(t / n);
+		t -= k * n;
+		int i = (int)t;
+		if (i >= n) i = n - 1;
+		return k * prefix[n * 4 + c] + prefix[i * 4 + c] + (t - i) * line[i * 4 + c];
+	}
+	
 	protected Vector4 _valueRGBA(float u, float v) {
 		return performFilter(null, null, u, v);
 	}
@@ -17,6 +17,7 @@
 
 package engine.graphics.synthesis.texture;
 
+import engine.base.FMath;
 import engine.base.Utils;
 import engine.base.Vector3;
 import engine.base.Vector4;
@@ -58,14 +59,69 @@ public final class FilterColorCorrect extends Channel {
 		return OutputType.SCALAR;
 	}
 	
+	/** The correction parameters snapshot in prepare. */
+	static final class State {
+		final float brightness, contrast, desaturate;
+		final float gamma, invGamma;
+		final boolean fastMath;
+		
+		State(FilterColorCorrect f) {
+			brightness = f.brightness.get();
+			contrast = f.contrast.get();
+			desaturate = f.desaturate.get();
+			gamma = f.gamma.get();
+			invGamma = 1.0f/gamma;
+			fastMath = f.fastMath;
+		}
+	}
+	
+	State state;
+	
+	// the baked transfer function of the chain ending here; null if not enabled
+	TransferLUT lut;
+	
+	protected void prepare() {
+		state = new State(this);
+		lut = TransferLUT.create(this);
+	}
+	
+	boolean hasTransferFunction() {
+		return state.desaturate == 0.0f;
+	}
+	
+	// the same as _function for a single component (without desaturate)
+	float transferFunction(int component, float x) {
+		final State s = state;
+		x -= 0.5f;
+		x *= s.contrast;
+		x += s.brightness;
+		x += 0.5f;
+		if (x < 0.0f) x = 0.0f;
+		if (x > 1.0f) x = 1.0f;
+		if (s.gamma != 1.0f) x = FMath.pow(x, s.invGamma, s.fastMath);
+		return x;
+	}
+	
+	boolean usesTransferLUT() {
+		return lut != null;
+	}
+	
+	boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+		final TransferLUT lut = this.lut;
+		if (lut == null) return false;
+		lut.computeTile(out);
+		return true;
+	}
+	
 	private Vector4 _function(Vector4 c0) {
+		final State s = state;
 		c0.sub_ip(0.5f);
-		c0.mult_ip(contrast.get());
-		c0.add_ip(brightness.get());
+		c0.mult_ip(s.contrast);
+		c0.add_ip(s.brightness);
 		c0.add_ip(0.5f);
 		c0.clamp(0.0f, 1.0f);
 		
-		float d = desaturate.get();
+		float d = s.desaturate;
 		if (d != 0.0f) {
 			Vector3 temp = c0.getVector3();
 			Utils.rgbToHSV_ip(temp);
@@ -74,8 +130,7 @@ public final class FilterColorCorrect extends Channel {
 			c0.setXYZ(temp.x, temp.y, temp.z);
 		}
 		
-		float g = gamma.get();
-		if (g != 1.0f) c0.pow_ip(1.0f/g);
+		if (s.gamma != 1.0f) c0.pow_ip(s.invGamma, s.fastMath);
 		
 		return c0;
 	}
@@ -83,6 +138,10 @@ public final class FilterColorCorrect extends Channel {
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
 		out.set(_function(caches[0].sample(localX, localY)));
 	}
+
+	boolean isPointwise() {
+		return true;
+	}
 	
 	
 	protected float _value1f(float u, float v) {
@@ -91,7 +150,46 @@ public final class FilterColorCorrect extends Channel {
 	}
 	
 	protected Vector4 _valueRGBA(float u, float v) {
+		final TransferLUT lut = this.lut;
+		if (lut != null) return lut.apply(lut.input.valueRGBA(u, v));
 		return _function(inputChannels[0].valueRGBA(u, v));
 	}
 	
+	// the derivative of _function (without desaturate) with respect to I
+	private static float function_d(State s, float I) {
+		float t = (I - 0.5f) * s.contrast + s.brightness + 0.5f;
+		if (t <= 0.0f || t >= 1.0f) return 0.0f;
+		float d = s.contrast;
+		if (s.gamma != 1.0f) d *= s.invGamma * FMath.pow(t, s.invGamma - 1.0f, s.fastMath);
+		return d;
+	}
+	
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		final State s = state;
+		// with a lookup table the channel is evaluated through valueRGBA so
+		// the compiled result stays the same
+		if (s.desaturate != 0.0f || lut != null) return false;
+		for (int i = 0; i < 4; i++) {
+			ChannelCompiler.assign(code, out[i], "((" + in[0][i] + " - 0.5f) * " + compiler.constant(s.contrast) + 
+					" + " + compiler.constant(s.brightness) + ") + 0.5f");
+			ChannelCompiler.clamp(code, out[i]);
+			if (s.gamma != 1.0f)
+				code.append("\t\t").append(out[i]).append(" = FMath.pow(").append(out[i]).append(", ").append(compiler.constant(s.invGamma)).append(", ").append(s.fastMath).append(");\n");
+		}
+		return true;
+	}
+	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		final State s = state;
+		if (s.desaturate != 0.0f) return false;
+		inputChannels[0].valueRGBA_d(u, v, val, du, dv);
+		float d;
+		d = function_d(s, val.x); du.x *= d; dv.x *= d;
+		d = function_d(s, val.y); du.y *= d; dv.y *= d;
+		d = function_d(s, val.z); du.z *= d; dv.z *= d;
+		d = function_d(s, val.w); du.w *= d; dv.w *= d;
+		_function(val);
+		return true;
+	}
+	
 }
@@ -59,6 +59,10 @@ public final class FilterColorize extends Channel {
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
 		_function(out, caches[0].sample(localX, localY));
 	}
+
+	boolean isPointwise() {
+		return true;
+	}
 	
 	
 	protected float _value1f(float u, float v) {
@@ -72,6 +76,16 @@ public final class FilterColorize extends Channel {
 		return ret;
 	}
 	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		final Vector4 in = new Vector4(), inDu = new Vector4(), inDv = new Vector4();
+		inputChannels[0].valueRGBA_d(u, v, in, inDu, inDv);
+		final Vector4 dc = new Vector4();
+		val.set(colorGradientParam.get().getColor_d(in.XYZto1f(), dc));
+		du.set(dc).mult_ip(inDu.XYZto1f());
+		dv.set(dc).mult_ip(inDv.XYZto1f());
+		return true;
+	}
+	
 	
 	
 	
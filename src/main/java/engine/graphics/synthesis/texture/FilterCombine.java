@@ -46,7 +46,19 @@ public class FilterCombine extends Channel {
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
 		_function(out, caches[0].sample(localX, localY), caches[1].sample(localX, localY), caches[2].sample(localX, localY), caches[3].sample(localX, localY));
 	}
+
+	boolean isPointwise() {
+		return true;
+	}
 		
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		ChannelCompiler.assign(code, out[0], in[0][input0channel.getEnumPos()]);
+		ChannelCompiler.assign(code, out[1], in[1][input1channel.getEnumPos()]);
+		ChannelCompiler.assign(code, out[2], in[2][input2channel.getEnumPos()]);
+		ChannelCompiler.assign(code, out[3], in[3][input3channel.getEnumPos()]);
+		return true;
+	}
+	
 	protected Vector4 _valueRGBA(float u, float v) {
 		Vector4 c0 = inputChannels[0].valueRGBA(u, v);
 		Vector4 c1 = inputChannels[1].valueRGBA(u, v);
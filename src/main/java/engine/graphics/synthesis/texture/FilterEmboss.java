@@ -55,13 +55,30 @@ public final class FilterEmboss extends Channel {
 		return OutputType.SCALAR;
 	}
 	
+	/** The strength and emboss direction snapshot in prepare. */
+	static final class State {
+		final float strength;
+		final Vector3 dir; // only read after construction
+		
+		State(FilterEmboss f) {
+			strength = f.strength.get();
+			float a = FMath.deg2rad(f.angle.get());
+			dir = new Vector3(FMath.cos(a),FMath.sin(a),0);
+		}
+	}
+	
+	State state;
+	
+	protected void prepare() {
+		state = new State(this);
+	}
+	
 	private final Vector4 _function(Vector4 in0, float du, float dv) {
+		final State s = state;
 		Vector4 c = new Vector4(in0);
-		Vector3 n = new Vector3(du*strength.get(), dv*strength.get(), 0.0f);
+		Vector3 n = new Vector3(du*s.strength, dv*s.strength, 0.0f);
 		
-		float a = FMath.deg2rad(angle.get());
-		Vector3 dir = new Vector3(FMath.cos(a),FMath.sin(a),0);
-		float addValue = n.dot(dir);
+		float addValue = n.dot(s.dir);
 		
 		c.x = Math.max(0.0f, Math.min(1.0f, c.x + addValue));
 		c.y = Math.max(0.0f, Math.min(1.0f, c.y + addValue));
@@ -80,9 +97,9 @@ public final class FilterEmboss extends Channel {
 	
 
 	protected Vector4 _valueRGBA(float u, float v) {
-		float du = inputChannels[1].du1f(u, v).XYZto1f();
-		float dv = inputChannels[1].dv1f(u, v).XYZto1f();
-		return _function(inputChannels[0].valueRGBA(u, v), du, dv);
+		final Vector4 val = new Vector4(), du = new Vector4(), dv = new Vector4();
+		inputChannels[1].valueRGBA_d(u, v, val, du, dv);
+		return _function(inputChannels[0].valueRGBA(u, v), du.XYZto1f(), dv.XYZto1f());
 		
 		/*Vector3 n = new Vector3(inputChannels[1].du1f(u, v)*strength.get(), inputChannels[1].dv1f(u, v)*strength.get(), 0.0f);
 		
@@ -40,18 +40,37 @@ public final class FilterIlluminate extends Channel {
 		return OutputType.SCALAR;
 	}
 
+	/** The light direction and shininess snapshot in prepare. */
+	static final class State {
+		final Vector3 lightDir = new Vector3(); // only read after construction
+		final float shininess;
+		final boolean fastMath;
+		
+		State(FilterIlluminate f) {
+			lightDir.setDir(f.theta.get() * (FMath.PI / 180.0f), f.phi.get() * (FMath.PI / 180.0f));
+			shininess = f.shininess.get();
+			fastMath = f.fastMath;
+		}
+	}
+	
+	State state;
+	
+	protected void prepare() {
+		state = new State(this);
+	}
+
 	private final Vector4 _function(Vector4 in0, Vector4 normalmap) {
+		final State s = state;
 		normalmap.add_ip(new Vector4(-0.5f));
 		normalmap.mult_ip(2.0f);
-		Vector3 lightDir = new Vector3();
-		lightDir.setDir(theta.get() * (FMath.PI / 180.0f), phi.get() * (FMath.PI / 180.0f));
+		final Vector3 lightDir = s.lightDir;
 
 		Vector3 reflect = (new Vector3(0, 0, -1)).reflect(normalmap.getVector3());
 
 		float ar = reflect.dot(lightDir);
 		if (ar < 0)
 			ar = 0;
-		ar = FMath.pow(ar, shininess.get());
+		ar = FMath.pow(ar, s.shininess, s.fastMath);
 
 		in0.add_ip(ar);
 		in0.clamp(0.0f, 1.0f);
@@ -63,6 +82,10 @@ public final class FilterIlluminate extends Channel {
 		out.set(_function(caches[0].sample(localX, localY), caches[1].sample(localX, localY)));
 	}
 
+	boolean isPointwise() {
+		return true;
+	}
+
 	protected Vector4 _valueRGBA(float u, float v) {
 		return _function(inputChannels[0].valueRGBA(u, v), inputChannels[1].valueRGBA(u, v));
 	}
@@ -68,6 +68,10 @@ public final class FilterMask extends Channel {
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
 		_function(out, caches[0].sample(localX, localY), caches[1].sample(localX, localY), caches[2].sample(localX, localY));
 	}
+
+	boolean isPointwise() {
+		return true;
+	}
 		
 	
 	protected float _value1f(float u, float v) {
@@ -85,4 +89,39 @@ public final class FilterMask extends Channel {
 		
 		return ret;
 	}
+	
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		final String w = out[3] + "_w";
+		final String[] m = in[2];
+		ChannelCompiler.assign(code, w, "(" + m[0] + "+" + m[1] + "+" + m[2] + ")*(1.0f/3.0f)");
+		if (invert.get()) code.append("\t\t").append(w).append(" = 1.0f - ").append(w).append(";\n");
+		for (int i = 0; i < 4; i++)
+			ChannelCompiler.assign(code, out[i], in[0][i] + " * (1.0f - " + w + ") + " + w + " * " + in[1][i]);
+		return true;
+	}
+	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		final Vector4 c0 = new Vector4(), c0u = new Vector4(), c0v = new Vector4();
+		final Vector4 c1 = new Vector4(), c1u = new Vector4(), c1v = new Vector4();
+		final Vector4 c2 = new Vector4(), c2u = new Vector4(), c2v = new Vector4();
+		inputChannels[0].valueRGBA_d(u, v, c0, c0u, c0v);
+		inputChannels[1].valueRGBA_d(u, v, c1, c1u, c1v);
+		inputChannels[2].valueRGBA_d(u, v, c2, c2u, c2v);
+		
+		_function(val, c0, c1, c2);
+		
+		// d/du [(1-w)*c0 + w*c1] = (1-w)*c0' + w*c1' + w'*(c1 - c0)
+		float w = c2.XYZto1f();
+		float wu = c2u.XYZto1f();
+		float wv = c2v.XYZto1f();
+		if (invert.get()) {
+			w = 1.0f - w;
+			wu = -wu;
+			wv = -wv;
+		}
+		final Vector4 diff = new Vector4(c1).sub_ip(c0);
+		du.set(c0u).mult_ip(1.0f - w).mult_add_ip(w, c1u).mult_add_ip(wu, diff);
+		dv.set(c0v).mult_ip(1.0f - w).mult_add_ip(w, c1v).mult_add_ip(wv, diff);
+		return true;
+	}
 }
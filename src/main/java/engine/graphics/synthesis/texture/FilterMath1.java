@@ -3,6 +3,7 @@ package engine.graphics.synthesis.texture;
 import engine.base.FMath;
 import engine.base.Vector4;
 import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+import engine.parameters.AbstractParam;
 import engine.parameters.BoolParam;
 import engine.parameters.EnumParam;
 import engine.parameters.FloatParam;
@@ -39,25 +40,120 @@ public class FilterMath1 extends Channel {
 		return OutputType.SCALAR;
 	}
 	
-	float apply(float I) {
-		float a = A.get();
-		switch (function.getEnumPos()) {
-			case 0: return I + a;
-			case 1: return I * a;
-			case 2: return a - I;
-			case 3: return FMath.pow(I, a);
-			default:
-				System.err.println("Invalid function selector in " + this);
-				return I;
+	/** One of the selectable functions f(I, a) together with its derivative df/dI. */
+	static abstract class Function {
+		// fast selects the FMath fast math variants
+		abstract float apply(float I, float a, boolean fast);
+		abstract float apply_d(float I, float a, boolean fast);
+		// the java source of apply for the given expressions (see ChannelCompiler)
+		abstract String source(String I, String a, boolean fast);
+	}
+	
+	static final class Add extends Function {
+		float apply(float I, float a, boolean fast) { return I + a; }
+		float apply_d(float I, float a, boolean fast) { return 1.0f; }
+		String source(String I, String a, boolean fast) { return "(" + I + " + " + a + ")"; }
+	}
+	
+	static final class Mult extends Function {
+		float apply(float I, float a, boolean fast) { return I * a; }
+		float apply_d(float I, float a, boolean fast) { return a; }
+		String source(String I, String a, boolean fast) { return "(" + I + " * " + a + ")"; }
+	}
+	
+	static final class Sub extends Function {
+		float apply(float I, float a, boolean fast) { return a - I; }
+		float apply_d(float I, float a, boolean fast) { return -1.0f; }
+		String source(String I, String a, boolean fast) { return "(" + a + " - " + I + ")"; }
+	}
+	
+	static final class Pow extends Function {
+		float apply(float I, float a, boolean fast) { return FMath.pow(I, a, fast); }
+		float apply_d(float I, float a, boolean fast) { return (I == 0.0f && a < 1.0f) ? 0.0f : a * FMath.pow(I, a - 1.0f, fast); }
+		String source(String I, String a, boolean fast) { return "FMath.pow(" + I + ", " + a + ", " + fast + ")"; }
+	}
+	
+	// indexed by the enum position of the function parameter
+	static final Function[] FUNCTIONS = { new Add(), new Mult(), new Sub(), new Pow() };
+	
+	// resolved from the function parameter in parameterChanged
+	Function selectedFunction = FUNCTIONS[0];
+	
+	public void parameterChanged(AbstractParam source) {
+		if (source == null || source == function)
+			selectedFunction = FUNCTIONS[function.getEnumPos()];
+		super.parameterChanged(source);
+	}
+	
+	/** The parameters snapshot in prepare; read per pixel. */
+	static final class State {
+		final float a;
+		final Function function;
+		final boolean onR, onG, onB, onA;
+		final boolean fastMath;
+		
+		State(FilterMath1 f) {
+			a = f.A.get();
+			function = f.selectedFunction;
+			onR = f.onR.get();
+			onG = f.onG.get();
+			onB = f.onB.get();
+			onA = f.onA.get();
+			fastMath = f.fastMath;
 		}
 	}
+	
+	State state;
+	
+	// the baked transfer function of the chain ending here; null if not enabled
+	TransferLUT lut;
+	
+	protected void prepare() {
+		state = new State(this);
+		lut = TransferLUT.create(this);
+	}
+	
+	float apply(State s, float I) {
+		return s.function.apply(I, s.a, s.fastMath);
+	}
 
+	// the derivative of apply with respect to I
+	float apply_d(State s, float I) {
+		return s.function.apply_d(I, s.a, s.fastMath);
+	}
+
+	boolean hasTransferFunction() {
+		return true;
+	}
+	
+	float transferFunction(int component, float x) {
+		final State s = state;
+		switch (component) {
+			case 0: return s.onR ? apply(s, x) : x;
+			case 1: return s.onG ? apply(s, x) : x;
+			case 2: return s.onB ? apply(s, x) : x;
+			default: return s.onA ? apply(s, x) : x;
+		}
+	}
+	
+	boolean usesTransferLUT() {
+		return lut != null;
+	}
+	
+	boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+		final TransferLUT lut = this.lut;
+		if (lut == null) return false;
+		lut.computeTile(out);
+		return true;
+	}
+	
 	private final Vector4 _function(Vector4 in0, float u, float v) {
+		final State s = state;
 		Vector4 c = new Vector4(in0);
-		if (onR.get()) c.x = apply(c.x);
-		if (onG.get()) c.y = apply(c.y);
-		if (onB.get()) c.z = apply(c.z);
-		if (onA.get()) c.w = apply(c.w);
+		if (s.onR) c.x = apply(s, c.x);
+		if (s.onG) c.y = apply(s, c.y);
+		if (s.onB) c.z = apply(s, c.z);
+		if (s.onA) c.w = apply(s, c.w);
 		return c;
 	}
 
@@ -65,9 +161,49 @@ public class FilterMath1 extends Channel {
 		out.set(_function(caches[0].sample(localX, localY), u, v));
 	}
 
+	boolean isPointwise() {
+		return true;
+	}
+
 
 	protected Vector4 _valueRGBA(float u, float v) {
+		final TransferLUT lut = this.lut;
+		if (lut != null) return lut.apply(lut.input.valueRGBA(u, v));
 		Vector4 c0 = inputChannels[0].valueRGBA(u, v);
 		return _function(c0, u, v);
-	}	
+	}
+	
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		// with a lookup table the channel is evaluated through valueRGBA
+		if (lut != null) return false;
+		final State s = state;
+		final String a = compiler.constant(s.a);
+		ChannelCompiler.assign(code, out[0], s.onR ? s.function.source(in[0][0], a, s.fastMath) : in[0][0]);
+		ChannelCompiler.assign(code, out[1], s.onG ? s.function.source(in[0][1], a, s.fastMath) : in[0][1]);
+		ChannelCompiler.assign(code, out[2], s.onB ? s.function.source(in[0][2], a, s.fastMath) : in[0][2]);
+		ChannelCompiler.assign(code, out[3], s.onA ? s.function.source(in[0][3], a, s.fastMath) : in[0][3]);
+		return true;
+	}
+	
+	public int getIdentityInput() {
+		if (!onR.get() && !onG.get() && !onB.get() && !onA.get())
+			return 0;
+		if (selectedFunction == FUNCTIONS[0] && A.get() == 0.0f) // I + 0
+			return 0;
+		if (selectedFunction == FUNCTIONS[1] && A.get() == 1.0f) // I * 1
+			return 0;
+		return -1;
+	}
+	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		inputChannels[0].valueRGBA_d(u, v, val, du, dv);
+		final State s = state;
+		float d;
+		if (s.onR) { d = apply_d(s, val.x); du.x *= d; dv.x *= d; }
+		if (s.onG) { d = apply_d(s, val.y); du.y *= d; dv.y *= d; }
+		if (s.onB) { d = apply_d(s, val.z); du.z *= d; dv.z *= d; }
+		if (s.onA) { d = apply_d(s, val.w); du.w *= d; dv.w *= d; }
+		val.set(_function(val, u, v));
+		return true;
+	}
 }
@@ -49,6 +49,14 @@ public class FilterModulus extends Channel {
 		out.set(_function(caches[0].sample(localX, localY), u, v));
 	}
 
+	boolean isPointwise() {
+		return true;
+	}
+	
+	public boolean isUniformIfInputsAre() {
+		return xBias.get() == 0 && super.isUniformIfInputsAre();
+	}
+
 
 	protected Vector4 _valueRGBA(float u, float v) {
 		Vector4 c0 = inputChannels[0].valueRGBA(u, v);
@@ -65,6 +65,8 @@ public final class FilterNormalMap extends Channel {
 	}
 	
 	protected Vector4 _valueRGBA(float u, float v) {
-		return _function(inputChannels[0].du1f(u, v).XYZto1f(), inputChannels[0].dv1f(u, v).XYZto1f());
+		final Vector4 val = new Vector4(), du = new Vector4(), dv = new Vector4();
+		inputChannels[0].valueRGBA_d(u, v, val, du, dv);
+		return _function(du.XYZto1f(), dv.XYZto1f());
 	}
 }
@@ -1,14 +1,18 @@
 package engine.graphics.synthesis.texture;
 
 import engine.base.FMath;
+import engine.base.Matrix3x3;
 import engine.base.Vector3;
 import engine.base.Vector4;
+import engine.graphics.synthesis.texture.CacheTileManager.SampleFilter;
 import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+import engine.parameters.EnumParam;
 import engine.parameters.Matrix3x3Param;
 
 public class FilterTransform extends Channel {
 	
 	Matrix3x3Param transformation = CreateLocalMatrix3x3Param("Transformation");
+	EnumParam sampling = CreateLocalEnumParam("Sampling", "Bilinear,Bicubic,Nearest,Exact");
 	
 	public String getName() {
 		return "Transform";
@@ -34,7 +38,43 @@ public class FilterTransform extends Channel {
 		return p;
 	}
 	
-	//!!TODO; find an acceptable way to use the cache here (tiled cache is the problem here)
+	// the input is sampled with the footprint scaled by the transformation
+	protected float inputFootprint(int idx, float footprint) {
+		final Matrix3x3 m = transformation.getMatrix();
+		float su = FMath.sqrt(m.get(0)*m.get(0) + m.get(3)*m.get(3));
+		float sv = FMath.sqrt(m.get(1)*m.get(1) + m.get(4)*m.get(4));
+		return footprint * Math.max(su, sv);
+	}
+	
+	/**
+	 * Unless sampling is Exact the transformed input is resampled from its
+	 * full resolution cache instead of evaluating the input graph per pixel.
+	 */
+	boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+		final SampleFilter filter;
+		switch (sampling.getEnumPos()) {
+			case 0: filter = SampleFilter.BILINEAR; break;
+			case 1: filter = SampleFilter.BICUBIC; break;
+			case 2: filter = SampleFilter.NEAREST; break;
+			default: return false; // Exact
+		}
+		
+		final TileCacheEntry source = CacheTileManager.getFullResolutionCache(inputChannels[0], in[0]);
+		final int startX = out.px * out.xres - out.border;
+		final int startY = out.py * out.yres - out.border;
+		for (int localY = 0, idx = 0; localY < out.yres + 2 * out.border; localY++) {
+			float v = (float) (startY + localY) / (float) out.globalYres;
+			v = v - FMath.ffloor(v);
+			for (int localX = 0; localX < out.xres + 2 * out.border; localX++, idx++) {
+				float u = (float) (startX + localX) / (float) out.globalXres;
+				u = u - FMath.ffloor(u);
+				Vector3 p = transform(u, v);
+				out.put(idx, source.sample_Normalized(p.x, p.y, filter));
+			}
+		}
+		return true;
+	}
+	
 	protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
 		Vector3 p = transform(u, v);
 		out.set(inputChannels[0].valueRGBA(p.x, p.y));
@@ -17,12 +17,16 @@
 
 package engine.graphics.synthesis.texture;
 
+import engine.base.FMath;
 import engine.base.Vector4;
+import engine.graphics.synthesis.texture.CacheTileManager.SampleFilter;
 import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+import engine.parameters.EnumParam;
 import engine.parameters.FloatParam;
 
 public final class FilterWarp extends Channel {
 	FloatParam strength;
+	EnumParam sampling = CreateLocalEnumParam("Sampling", "Bilinear,Bicubic,Nearest,Exact");
 
 	public String getName() {
 		return "Warp";
@@ -30,7 +34,9 @@ public final class FilterWarp extends Channel {
 	
 	public String getHelpText() {
 		return "Warps (moves) the coordinates of the input image based on\n" +
-				"the grayscale derivative of the second input.";
+				"the grayscale derivative of the second input.\n" +
+				"Sampling: how the cached input is resampled; Exact evaluates\n" +
+				"the input again for each pixel (slow).";
 	}
 	
 
@@ -60,6 +66,43 @@ public final class FilterWarp extends Channel {
 		out.set(inputChannels[0].valueRGBA(u+du, v+dv));
 	}
 	
+	// the displacement can compress the warped input arbitrarily so it is
+	// not band limited
+	protected float inputFootprint(int idx, float footprint) {
+		return (idx == 0) ? 0.0f : footprint;
+	}
+	
+	/**
+	 * Unless sampling is Exact the warped input is resampled from its full
+	 * resolution cache instead of evaluating the input graph per pixel.
+	 */
+	boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+		final SampleFilter filter;
+		switch (sampling.getEnumPos()) {
+			case 0: filter = SampleFilter.BILINEAR; break;
+			case 1: filter = SampleFilter.BICUBIC; break;
+			case 2: filter = SampleFilter.NEAREST; break;
+			default: return false; // Exact
+		}
+		
+		final TileCacheEntry source = CacheTileManager.getFullResolutionCache(inputChannels[0], in[0]);
+		final float s = strength.get();
+		final int startX = out.px * out.xres - out.border;
+		final int startY = out.py * out.yres - out.border;
+		for (int localY = 0, idx = 0; localY < out.yres + 2 * out.border; localY++) {
+			float v = (float) (startY + localY) / (float) out.globalYres;
+			v = v - FMath.ffloor(v);
+			for (int localX = 0; localX < out.xres + 2 * out.border; localX++, idx++) {
+				float u = (float) (startX + localX) / (float) out.globalXres;
+				u = u - FMath.ffloor(u);
+				float du = in[1].sample_du(localX, localY).XYZto1f() * s;
+				float dv = in[1].sample_dv(localX, localY).XYZto1f() * s;
+				out.put(idx, source.sample_Normalized(u+du, v+dv, filter));
+			}
+		}
+		return true;
+	}
+	
 	protected float _value1f(float u, float v) {
 		Vector4 val = valueRGBA(u, v);
 		return (val.x+val.y+val.z)*(1.0f/3.0f);
@@ -67,8 +110,10 @@ public final class FilterWarp extends Channel {
 	
 	protected Vector4 _valueRGBA(float u, float v) {
 		
-		float du = inputChannels[1].du1f(u, v).XYZto1f() * strength.get();
-		float dv = inputChannels[1].dv1f(u, v).XYZto1f() * strength.get();
+		final Vector4 val = new Vector4(), d_u = new Vector4(), d_v = new Vector4();
+		inputChannels[1].valueRGBA_d(u, v, val, d_u, d_v);
+		float du = d_u.XYZto1f() * strength.get();
+		float dv = d_v.XYZto1f() * strength.get();
 		
 		Vector4 c = inputChannels[0].valueRGBA(u+du, v+dv);
 
@@ -17,9 +17,8 @@
 
 package engine.graphics.synthesis.texture;
 
-import java.util.Random;
-
 import engine.base.FMath;
+import engine.base.FRandom;
 import engine.base.Vector3;
 
 /**
@@ -49,7 +48,7 @@ public final class Noise3D_ImprovedPerlin {
 	 * 
 	 * @param size
 	 * @param seed
-	 *            if seed >= 0 it is given to new Random(seed); -1 uses the values from Ken Perlin's reference implementation
+	 *            if seed >= 0 it is given to new FRandom(seed); -1 uses the values from Ken Perlin's reference implementation
 	 */
 	public Noise3D_ImprovedPerlin(int size, int seed) {
 		this.size = size;
@@ -61,7 +60,7 @@ public final class Noise3D_ImprovedPerlin {
 			for (int i = 0; i < 256; i++)
 				p[i] = permutation[i];
 		} else {
-			Random r = new Random(seed);
+			FRandom r = new FRandom(seed);
 			for (int i = 0; i < 256; i++)
 				p[i] = i;
 			for (int i = 0; i < 256; i++) {
@@ -148,6 +147,90 @@ public final class Noise3D_ImprovedPerlin {
 	}
 	
 
+	/**
+	 * Same as sample3d(pos, 1) but also computes the analytic gradient of the
+	 * noise with respect to pos.
+	 */
+	public float sample_d(Vector3 pos, Vector3 gradient) {
+		float x = pos.x * size, y = pos.y * size, z = pos.z * size;
+		int X = FMath.ffloor(x), Y = FMath.ffloor(y), Z = FMath.ffloor(z);
+		x -= X; y -= Y; z -= Z;
+		X&=255; Y&=255; Z&=255;
+		
+		int A = perm(X) + Y, AA = perm(A) + Z, AB = perm(A + 1) + Z,
+		B = perm(X + 1) + Y, BA = perm(B) + Z, BB = perm(B + 1) + Z;
+		
+		return interpolate_d(perm(AA), perm(BA), perm(AB), perm(BB), perm(AA + 1), perm(BA + 1), perm(AB + 1), perm(BB + 1), x, y, z, gradient);
+	}
+	
+	/**
+	 * Same as sample3dPeriodic but also computes the analytic gradient of the
+	 * noise with respect to pos.
+	 */
+	public float sample3dPeriodic_d(Vector3 pos, int periodX, int periodY, int periodZ, Vector3 gradient) {
+		float x = pos.x * size, y = pos.y * size, z = pos.z * size;
+		int X = FMath.ffloor(x), Y = FMath.ffloor(y), Z = FMath.ffloor(z);
+		x -= X; y -= Y; z -= Z;
+		X&=255; Y&=255; Z&=255;
+		
+		int Ix = X%periodX;
+		int Iy = Y%periodY;
+		int Iz = Z%periodZ;
+		int Jx = (Ix+1)%periodX;
+		int Jy = (Iy+1)%periodY;
+		int Jz = (Iz+1)%periodZ;
+		
+		int A = perm(Ix), AA = perm(A + Iy), AB = perm((A + Jy)),
+		B = perm(Jx), BA = perm(B + Iy), BB = perm((B + Jy));
+		
+		return interpolate_d(perm(AA + Iz), perm(BA + Iz), perm(AB + Iz), perm(BB + Iz), perm(AA + Jz), perm(BA + Jz), perm(AB + Jz), perm(BB + Jz), x, y, z, gradient);
+	}
+	
+	/**
+	 * Blends the gradients of the 8 cube corners (given by their hash; x
+	 * varies fastest) exactly like sample3d and computes the derivative of the
+	 * blend with the chain rule (the corner functions are linear and the fade
+	 * curve derivative is 30t^2(t-1)^2).
+	 */
+	private float interpolate_d(int h000, int h100, int h010, int h110, int h001, int h101, int h011, int h111, float x, float y, float z, Vector3 gradient) {
+		final float u = fade(x), v = fade(y), w = fade(z);
+		final float du = fade_d(x), dv = fade_d(y), dw = fade_d(z);
+		
+		final float n000 = grad(h000, x, y, z), n100 = grad(h100, x - 1, y, z);
+		final float n010 = grad(h010, x, y - 1, z), n110 = grad(h110, x - 1, y - 1, z);
+		final float n001 = grad(h001, x, y, z - 1), n101 = grad(h101, x - 1, y, z - 1);
+		final float n011 = grad(h011, x, y - 1, z - 1), n111 = grad(h111, x - 1, y - 1, z - 1);
+		
+		// lerps along x
+		final float a00 = lerp(u, n000, n100), a10 = lerp(u, n010, n110);
+		final float a01 = lerp(u, n001, n101), a11 = lerp(u, n011, n111);
+		final float a00x = lerp(u, GRAD_X[h000 & 15], GRAD_X[h100 & 15]) + du * (n100 - n000);
+		final float a10x = lerp(u, GRAD_X[h010 & 15], GRAD_X[h110 & 15]) + du * (n110 - n010);
+		final float a01x = lerp(u, GRAD_X[h001 & 15], GRAD_X[h101 & 15]) + du * (n101 - n001);
+		final float a11x = lerp(u, GRAD_X[h011 & 15], GRAD_X[h111 & 15]) + du * (n111 - n011);
+		final float a00y = lerp(u, GRAD_Y[h000 & 15], GRAD_Y[h100 & 15]);
+		final float a10y = lerp(u, GRAD_Y[h010 & 15], GRAD_Y[h110 & 15]);
+		final float a01y = lerp(u, GRAD_Y[h001 & 15], GRAD_Y[h101 & 15]);
+		final float a11y = lerp(u, GRAD_Y[h011 & 15], GRAD_Y[h111 & 15]);
+		final float a00z = lerp(u, GRAD_Z[h000 & 15], GRAD_Z[h100 & 15]);
+		final float a10z = lerp(u, GRAD_Z[h010 & 15], GRAD_Z[h110 & 15]);
+		final float a01z = lerp(u, GRAD_Z[h001 & 15], GRAD_Z[h101 & 15]);
+		final float a11z = lerp(u, GRAD_Z[h011 & 15], GRAD_Z[h111 & 15]);
+		
+		// lerps along y
+		final float b0 = lerp(v, a00, a10), b1 = lerp(v, a01, a11);
+		final float b0x = lerp(v, a00x, a10x), b1x = lerp(v, a01x, a11x);
+		final float b0y = lerp(v, a00y, a10y) + dv * (a10 - a00), b1y = lerp(v, a01y, a11y) + dv * (a11 - a01);
+		final float b0z = lerp(v, a00z, a10z), b1z = lerp(v, a01z, a11z);
+		
+		// lerp along z
+		gradient.x = lerp(w, b0x, b1x);
+		gradient.y = lerp(w, b0y, b1y);
+		gradient.z = lerp(w, b0z, b1z) + dw * (b1 - b0);
+		gradient.mult_ip(size);
+		return lerp(w, b0, b1);
+	}
+
 	int perm(int idx) {
 		return p[idx & 255];
 	}
@@ -156,10 +239,24 @@ public final class Noise3D_ImprovedPerlin {
 		return t * t * t * (t * (t * 6 - 15) + 10);
 	}
 
+	static float fade_d(float t) {
+		return 30 * t * t * (t - 1) * (t - 1);
+	}
+
 	static float lerp(float t, float a, float b) {
 		return a + t * (b - a);
 	}
 
+	// the (constant) gradient directions of grad(hash, x, y, z) for the 16 hash values
+	static final float[] GRAD_X = new float[16], GRAD_Y = new float[16], GRAD_Z = new float[16];
+	static {
+		for (int h = 0; h < 16; h++) {
+			GRAD_X[h] = grad(h, 1, 0, 0);
+			GRAD_Y[h] = grad(h, 0, 1, 0);
+			GRAD_Z[h] = grad(h, 0, 0, 1);
+		}
+	}
+
 	static float grad(int hash, float x, float y, float z) {
 		int h = hash & 15; // CONVERT LO 4 BITS OF HASH CODE
 		float u = (h < 8) ? x : y; // INTO 12 GRADIENT DIRECTIONS.
@@ -19,7 +19,10 @@ package engine.graphics.synthesis.texture;
 
 import engine.base.FMath;
 import engine.base.Vector3;
+import engine.base.Matrix3x3;
 import engine.base.Vector4;
+import engine.parameters.AbstractParam;
+import engine.parameters.ColorGradientParam;
 import engine.parameters.Matrix3x3Param;
 
 /**
@@ -49,8 +52,70 @@ public class Pattern extends Channel {
 		return p;
 	}
 	
+	/**
+	 * For patterns _valueRGBA_d returns the derivatives with respect to the
+	 * pattern coordinates (unscaled); they are transformed here.
+	 */
+	@Override
+	public void valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		if (!prepared) prepareEvaluation();
+		if (useAnalyticDerivatives) {
+			Vector3 p = transform(u, v);
+			if (_valueRGBA_d(p.x, p.y, val, du, dv)) {
+				final Matrix3x3 m = transformation.getMatrix();
+				final Vector4 dx = new Vector4(du);
+				final Vector4 dy = dv;
+				du.set(dx).mult_ip(m.get(0) * derivativeScale).mult_add_ip(m.get(3) * derivativeScale, dy);
+				dy.mult_ip(m.get(4) * derivativeScale).mult_add_ip(m.get(1) * derivativeScale, dx);
+				return;
+			}
+		}
+		finiteDifferences_d(u, v, val, du, dv);
+	}
+	
+	/**
+	 * Scalar valued patterns return their color mapping here and implement
+	 * _value1f instead of _valueRGBA. The pattern is then computed in two
+	 * stages: the scalar field and its (cheap) mapping through the color
+	 * gradient. The cache keeps the scalar field so that a change of only
+	 * the color mapping does not recompute the pattern.
+	 */
+	protected ColorGradientParam getColorMapping() {
+		return null;
+	}
+	
+	// a color mapping with a single entry maps every value to the same color
+	public boolean isUniformIfInputsAre() {
+		final ColorGradientParam mapping = getColorMapping();
+		return mapping != null && mapping.get().getNumEntries() == 1;
+	}
+	
+	/** The scalar field of the pattern (in pattern coordinates) */
+	protected float _value1f(float u, float v) {
+		return 0.0f;
+	}
+	
+	/** The scalar field at (u, v) before the color mapping */
+	public float value1f(float u, float v) {
+		if (!prepared) prepareEvaluation();
+		Vector3 p = transform(u, v);
+		return _value1f(p.x, p.y);
+	}
+	
+	protected Vector4 _valueRGBA(float u, float v) {
+		final ColorGradientParam mapping = getColorMapping();
+		if (mapping == null) return super._valueRGBA(u, v);
+		return mapping.get().getColor(_value1f(u, v));
+	}
+	
+	void invalidateCache(AbstractParam source) {
+		if (source != null && source == getColorMapping()) CacheTileManager.setEntrysMappingDirty(this);
+		else super.invalidateCache(source);
+	}
+	
 	@Override
 	public Vector4 valueRGBA(float u, float v) {
+		if (!prepared) prepareEvaluation();
 		Vector3 p = transform(u, v);
 		Vector4 val = _valueRGBA(p.x, p.y);
 		return val;
@@ -18,7 +18,7 @@
 package engine.graphics.synthesis.texture;
 
 import engine.base.FMath;
-import engine.base.Vector4;
+import engine.base.FRandom;
 import engine.parameters.AbstractParam;
 import engine.parameters.BoolParam;
 import engine.parameters.ColorGradientParam;
@@ -83,21 +83,25 @@ public final class PatternBrick extends Pattern {
 
 	void createRandomColors() {
 		randomColors = new float[widthY.get() * widthX.get()];
-		FMath.setSeed(3123);
+		FRandom rnd = new FRandom(3123);
 		for (int i = 0; i < randomColors.length; i++)
-			randomColors[i] = FMath.random();
+			randomColors[i] = rnd.nextFloat();
 		
 		
 	}
 
 	void createRandomShifts() {
 		randomShifts = new float[widthY.get()];
-		FMath.setSeed(31232);
+		FRandom rnd = new FRandom(31232);
 		for (int i = 0; i < randomShifts.length; i++)
-			randomShifts[i] = FMath.random();
+			randomShifts[i] = rnd.nextFloat();
 	}
 
-	protected Vector4 _valueRGBA(float u, float v) {
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
 		// boolean white = (((int) ((u * scaleX.get()) * 2.0) + ((int) ((v *
 		// scaleY.get()) * 2.0))) & 1) == 0;
 
@@ -140,7 +144,7 @@ public final class PatternBrick extends Pattern {
 			}
 		} else val = 0.0f;
 		
-		return colorGradientParam.get().getColor(val);
+		return val;
 	}
 
 }
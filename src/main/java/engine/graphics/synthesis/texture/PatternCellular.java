@@ -18,8 +18,8 @@
 package engine.graphics.synthesis.texture;
 
 import engine.base.FMath;
+import engine.base.FRandom;
 import engine.base.Vector2;
-import engine.base.Vector4;
 import engine.base.datastructure.NdPositionable;
 import engine.base.datastructure.PointKDTree;
 import engine.parameters.AbstractParam;
@@ -56,8 +56,60 @@ public final class PatternCellular extends Pattern {
 
 	float randomColors[];
 
-	//boolean useManhattanDist = false;
-	int distanceFunctionType = 0; // 0 euclid, 1 manhattan, 2 max
+	/**
+	 * A distance metric: distance2 is used for the kd tree ordering,
+	 * distance for the final value.
+	 */
+	static abstract class Distance {
+		abstract float distance2(float dX, float dY);
+		abstract float distance(PatternPoint p0, PatternPoint p1);
+	}
+	
+	static final class Euclid extends Distance {
+		float distance2(float dX, float dY) {
+			return (dX * dX + dY * dY);
+		}
+		float distance(PatternPoint p0, PatternPoint p1) {
+			return p0.distance(p1);
+		}
+	}
+	
+	static final class Manhattan extends Distance {
+		float distance2(float dX, float dY) {
+			return Math.abs(dX) + Math.abs(dY);
+		}
+		float distance(PatternPoint p0, PatternPoint p1) {
+			return p0.manhattan(p1);
+		}
+	}
+	
+	static final class Max extends Distance {
+		float distance2(float dX, float dY) {
+			return Math.max(Math.abs(dX), Math.abs(dY));
+		}
+		float distance(PatternPoint p0, PatternPoint p1) {
+			return Math.max(FMath.abs(p0.x - p1.x), FMath.abs(p0.y - p1.y));
+		}
+	}
+	
+	static final class Minkowski05 extends Distance {
+		float distance2(float dX, float dY) {
+			dX = FMath.sqrt(Math.abs(dX));
+			dY = FMath.sqrt(Math.abs(dY));
+			return (dX+dY)*(dX+dY);
+		}
+		float distance(PatternPoint p0, PatternPoint p1) {
+			float x = FMath.sqrt(FMath.abs(p0.x - p1.x));
+			float y = FMath.sqrt(FMath.abs(p0.y - p1.y));
+			return (x+y)*(x+y);
+		}
+	}
+	
+	// indexed by the enum position of distanceFunction
+	static final Distance[] DISTANCES = { new Euclid(), new Manhattan(), new Max(), new Minkowski05() };
+	
+	// resolved from distanceFunction in parameterChanged
+	Distance selectedDistance = DISTANCES[0];
 
 	final class PatternPoint extends Vector2 implements NdPositionable {
 		public int index;
@@ -68,28 +120,12 @@ public final class PatternCellular extends Pattern {
 		}
 
 		public final float nd_distance2Func(NdPositionable p) {
-			if (distanceFunctionType == 3) { // Minkowski 0.5
-				float dX = FMath.sqrt(Math.abs(x - p.getPos(0)));
-				float dY = FMath.sqrt(Math.abs(y - p.getPos(1)));
-				return (dX+dY)*(dX+dY);
-			}
-			if (distanceFunctionType == 2) { // max
-				float dX = Math.abs(x - p.getPos(0));
-				float dY = Math.abs(y - p.getPos(1));
-				return Math.max(dX, dY);
-			}else if (distanceFunctionType == 1) { // manhaten
-				float dX = Math.abs(x - p.getPos(0));
-				float dY = Math.abs(y - p.getPos(1));
-				return dX + dY;
-			} else {
-				float dX = (x - p.getPos(0));
-				float dY = (y - p.getPos(1));
-				return (dX * dX + dY * dY);
-			}
+			return selectedDistance.distance2(x - p.getPos(0), y - p.getPos(1));
 		}
 	}
 
-	final PointKDTree<PatternPoint> points = new PointKDTree<PatternPoint>(2);
+	// replaced (and not changed) when regenerated since clones share it (see parametersCopied)
+	PointKDTree<PatternPoint> points = new PointKDTree<PatternPoint>(2);
 
 	BoolParam useRandomColor;
 
@@ -106,87 +142,98 @@ public final class PatternCellular extends Pattern {
 		useRandomColor = CreateLocalBoolParam("RandColor", false);
 		periodic = CreateLocalBoolParam("Periodic", true);
 
-		regeneratePoints();
-		createRandomColors();
 		parameterChanged(null);
 	}
 
 	void createRandomColors() {
-		if (randomColors == null || numPoints.get() != randomColors.length)
-			randomColors = new float[numPoints.get()];
-		FMath.setSeed(randomSeedParam.get());
-		for (int i = 0; i < randomColors.length; i++)
-			randomColors[i] = FMath.random();
-
+		float[] colors = new float[numPoints.get()];
+		FRandom rnd = new FRandom(randomSeedParam.get());
+		for (int i = 0; i < colors.length; i++)
+			colors[i] = rnd.nextFloat();
+		randomColors = colors;
 	}
 	
 	public float distance(PatternPoint p0, PatternPoint p1) {
-		if (distanceFunction.getEnumPos() == 0)
-			return p0.distance(p1);
-		else if (distanceFunction.getEnumPos() == 1)
-			return p0.manhattan(p1);
-		else if (distanceFunction.getEnumPos() == 2) 
-			return Math.max(FMath.abs(p0.x - p1.x), FMath.abs(p0.y - p1.y));
-		else if (distanceFunction.getEnumPos() == 3) { 
-			float x = FMath.sqrt(FMath.abs(p0.x - p1.x));
-			float y = FMath.sqrt(FMath.abs(p0.y - p1.y));
-			return (x+y)*(x+y);
-		}
-		else System.err.println("PatternCellular.distance wrong");
-		return 0.0f;
+		return selectedDistance.distance(p0, p1);
 	}
 	
+	/**
+	 * One of the cell functions; evaluate returns the final value for the
+	 * lookup point using the helpers of the given pattern.
+	 */
+	static abstract class CellFunction {
+		abstract float evaluate(PatternCellular c, PatternPoint lookup);
+	}
 	
-	// !!TODO: still can be optimized a lot
-	protected Vector4 _valueRGBA(float u, float v) {
-		final PatternPoint[] p2 = new PatternPoint[2];
-		final PatternPoint[] p3 = new PatternPoint[3];
-
-		float minDistA = Float.MAX_VALUE;
-		PatternPoint lookup = new PatternPoint(u, v, -1);
-		PatternPoint nearest = null;
-		
-		if (cellFunction.getEnumPos() == 0) { // F1
-			nearest = points.getNearest(lookup);
-			minDistA = distance(lookup, nearest);
-		} else if (cellFunction.getEnumPos() == 1) { // F2
+	static final class F1 extends CellFunction {
+		float evaluate(PatternCellular c, PatternPoint lookup) {
+			PatternPoint nearest = c.points.getNearest(lookup);
+			float minDistA = c.distance(lookup, nearest);
+			return c.finish(minDistA, nearest);
+		}
+	}
+	
+	static final class F2 extends CellFunction {
+		float evaluate(PatternCellular c, PatternPoint lookup) {
+			final PatternPoint[] p2 = new PatternPoint[2];
 			// !!TODO: optimize
-			points.getKNearest(lookup, p2);
-			nearest = (lookup.nd_distance2Func(p2[0]) < lookup.nd_distance2Func(p2[1])) ? p2[1] : p2[0];
-			minDistA = distance(lookup, nearest);
-		} else if (cellFunction.getEnumPos() == 2) { // F3
+			c.points.getKNearest(lookup, p2);
+			PatternPoint nearest = (lookup.nd_distance2Func(p2[0]) < lookup.nd_distance2Func(p2[1])) ? p2[1] : p2[0];
+			float minDistA = c.distance(lookup, nearest);
+			return c.finish(minDistA / 1.4142f, nearest);
+		}
+	}
+	
+	static final class F3 extends CellFunction {
+		float evaluate(PatternCellular c, PatternPoint lookup) {
+			final PatternPoint[] p3 = new PatternPoint[3];
 			// !!TODO: optimize
-			points.getKNearest(lookup, p3);
-			nearest = (lookup.nd_distance2Func(p3[0]) < lookup.nd_distance2Func(p3[1])) ? p3[1] : p3[0];
+			c.points.getKNearest(lookup, p3);
+			PatternPoint nearest = (lookup.nd_distance2Func(p3[0]) < lookup.nd_distance2Func(p3[1])) ? p3[1] : p3[0];
 			nearest = (lookup.nd_distance2Func(nearest) < lookup.nd_distance2Func(p3[2])) ? p3[2] : nearest;
-			minDistA = distance(lookup, nearest);
-		} else if (cellFunction.getEnumPos() == 3) { // Constant
-			nearest = points.getNearest(lookup);
-			float ret = valueScale.get();
-			if (useRandomColor.get())
-				ret *= randomColors[nearest.index];
-			return colorGradientParam.get().getColor(ret);
-		} else if (cellFunction.getEnumPos() == 4) { // F2-F1
-			// !!TODO: optimize
-			points.getKNearest(lookup, p2);
-			nearest = (lookup.nd_distance2Func(p2[0]) < lookup.nd_distance2Func(p2[1])) ? p2[0] : p2[1];
-			minDistA = FMath.abs(distance(lookup, p2[0]) - distance(lookup, p2[1]));
+			float minDistA = c.distance(lookup, nearest);
+			return c.finish(minDistA / 2.0f, nearest);
 		}
-
-
-		float ret = minDistA;
-		if (cellFunction.getEnumPos() == 0)
-			ret = minDistA;
-		else if (cellFunction.getEnumPos() == 1)
-			ret = minDistA / 1.4142f;
-		else if (cellFunction.getEnumPos() == 2)
-			ret = minDistA / 2.0f;
-		else if (cellFunction.getEnumPos() == 4)
-			ret = minDistA * 1.4142f;
-		else {
-			System.err.println("DBG error: sth wrong in PatternCellular.");
+	}
+	
+	static final class Constant extends CellFunction {
+		float evaluate(PatternCellular c, PatternPoint lookup) {
+			PatternPoint nearest = c.points.getNearest(lookup);
+			float ret = c.valueScale.get();
+			if (c.useRandomColor.get())
+				ret *= c.randomColors[nearest.index];
+			return ret;
 		}
-
+	}
+	
+	static final class F2MinusF1 extends CellFunction {
+		float evaluate(PatternCellular c, PatternPoint lookup) {
+			final PatternPoint[] p2 = new PatternPoint[2];
+			// !!TODO: optimize
+			c.points.getKNearest(lookup, p2);
+			PatternPoint nearest = (lookup.nd_distance2Func(p2[0]) < lookup.nd_distance2Func(p2[1])) ? p2[0] : p2[1];
+			float minDistA = FMath.abs(c.distance(lookup, p2[0]) - c.distance(lookup, p2[1]));
+			return c.finish(minDistA * 1.4142f, nearest);
+		}
+	}
+	
+	// indexed by the enum position of cellFunction
+	static final CellFunction[] CELL_FUNCTIONS = { new F1(), new F2(), new F3(), new Constant(), new F2MinusF1() };
+	
+	// resolved from cellFunction in parameterChanged
+	CellFunction selectedCellFunction = CELL_FUNCTIONS[0];
+	
+	
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
+		return selectedCellFunction.evaluate(this, new PatternPoint(u, v, -1));
+	}
+	
+	// scales, normalizes and clamps the distance value of a cell function
+	final float finish(float ret, PatternPoint nearest) {
 		ret *= valueScale.get();
 
 		// normalization of the value depends on the number of points and the
@@ -213,19 +260,19 @@ public final class PatternCellular extends Pattern {
 		if (useRandomColor.get())
 			ret *= randomColors[nearest.index];
 
-		return colorGradientParam.get().getColor(ret);
+		return ret;
 	}
 
 	public void regeneratePoints() {
-		points.clear();
+		PointKDTree<PatternPoint> points = new PointKDTree<PatternPoint>(2);
 
-		FMath.setSeed(randomSeedParam.get());
+		FRandom rnd = new FRandom(randomSeedParam.get());
 
 		for (int i = 0; i < numPoints.get(); i++) {
-			float jitterX = FMath.random(-0.5f, 0.5f) * jitter.get() / FMath.sqrt(numPoints.get());
-			float jitterY = FMath.random(-0.5f, 0.5f) * jitter.get() / FMath.sqrt(numPoints.get());
+			float jitterX = rnd.nextFloat(-0.5f, 0.5f) * jitter.get() / FMath.sqrt(numPoints.get());
+			float jitterY = rnd.nextFloat(-0.5f, 0.5f) * jitter.get() / FMath.sqrt(numPoints.get());
 			if (randomFunction.getEnumPos() == 0) { // Random
-				points.add(new PatternPoint(FMath.random() + jitterX, FMath.random() + jitterY, i));
+				points.add(new PatternPoint(rnd.nextFloat() + jitterX, rnd.nextFloat() + jitterY, i));
 			} else if (randomFunction.getEnumPos() == 1) { // Regular
 				int mod = (int) (FMath.sqrt(numPoints.get()) + 0.999f);
 				float x = (i % mod) / (float) mod;
@@ -243,12 +290,13 @@ public final class PatternCellular extends Pattern {
 
 		// for kd tree lookup we replicate the points to get a periodic pattern
 		if (periodic.get())
-			replicatePointsOnTorus();
+			replicatePointsOnTorus(points);
 
 		points.build();
+		this.points = points;
 	}
 
-	private void replicatePointsOnTorus() {
+	private void replicatePointsOnTorus(PointKDTree<PatternPoint> points) {
 		//System.out.println("Replicating points");
 		int num = points.size();
 		for (int i = 0; i < num; i++) {
@@ -268,21 +316,50 @@ public final class PatternCellular extends Pattern {
 		}
 	}
 
+	// set in parameterChanged; the points and colors are generated in prepare
+	// so that loading and connecting a graph does not generate them repeatedly
+	boolean pointsDirty = true;
+	boolean colorsDirty = true;
+
 	public void parameterChanged(AbstractParam source) {
-		distanceFunctionType = distanceFunction.getEnumPos();
+		selectedDistance = DISTANCES[distanceFunction.getEnumPos()];
+		selectedCellFunction = CELL_FUNCTIONS[cellFunction.getEnumPos()];
 
 		if (source == null) {
-			regeneratePoints();
-			createRandomColors();
+			pointsDirty = true;
+			colorsDirty = true;
 		} else if (source == randomFunction || source == periodic || source == jitter) {
-			regeneratePoints();
+			pointsDirty = true;
 		} else if (source == randomSeedParam) {
-			regeneratePoints();
-			createRandomColors();
+			pointsDirty = true;
+			colorsDirty = true;
 		} else if (source == numPoints) {
+			pointsDirty = true;
+			colorsDirty = true;
+		}
+		super.parameterChanged(source);
+	}
+
+	protected void prepare() {
+		if (pointsDirty) {
 			regeneratePoints();
+			pointsDirty = false;
+		}
+		if (colorsDirty) {
 			createRandomColors();
+			colorsDirty = false;
 		}
-		super.parameterChanged(source);
+	}
+
+	// shares the points and colors of the original instead of regenerating them
+	protected void parametersCopied(Channel source) {
+		PatternCellular c = (PatternCellular) source;
+		points = c.points;
+		randomColors = c.randomColors;
+		pointsDirty = c.pointsDirty;
+		colorsDirty = c.colorsDirty;
+		selectedDistance = DISTANCES[distanceFunction.getEnumPos()];
+		selectedCellFunction = CELL_FUNCTIONS[cellFunction.getEnumPos()];
+		super.parameterChanged(null);
 	}
 }
@@ -17,7 +17,6 @@
 
 package engine.graphics.synthesis.texture;
 
-import engine.base.Vector4;
 import engine.parameters.ColorGradientParam;
 import engine.parameters.FloatParam;
 
@@ -47,9 +46,13 @@ public final class PatternChecker extends Pattern {
 		scaleY.set(sy);
 	}
 
-	protected Vector4 _valueRGBA(float u, float v) {
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
 		boolean white = (((int)((u*scaleX.get())*2.0) + ((int)((v*scaleY.get())*2.0)))&1)==0;
-		if (white) return colorGradientParam.get().getColor(1.0f);
-		else return colorGradientParam.get().getColor(0.0f);
+		if (white) return 1.0f;
+		else return 0.0f;
 	}
 }
@@ -44,4 +44,23 @@ public final class PatternConstantColor extends Pattern {
 		return new Vector4(color.get(), 1.0f);
 	}
 	
+	public boolean isUniformIfInputsAre() {
+		return true;
+	}
+	
+	boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+		ChannelCompiler.assign(code, out[0], compiler.constant(color.get().x));
+		ChannelCompiler.assign(code, out[1], compiler.constant(color.get().y));
+		ChannelCompiler.assign(code, out[2], compiler.constant(color.get().z));
+		ChannelCompiler.assign(code, out[3], "1.0f");
+		return true;
+	}
+	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		val.set(_valueRGBA(u, v));
+		du.set(0.0f);
+		dv.set(0.0f);
+		return true;
+	}
+	
 }
@@ -1,7 +1,7 @@
 package engine.graphics.synthesis.texture;
 
 import engine.base.FMath;
-import engine.base.Vector4;
+import engine.parameters.AbstractParam;
 import engine.parameters.ColorGradientParam;
 import engine.parameters.EnumParam;
 import engine.parameters.FloatParam;
@@ -27,37 +27,83 @@ public final class PatternFunction extends Pattern {
 	}
 	
 	
-	private final float saw(float i) {
-		i = i - (int)i;
-		if (i > 0.5f) return 2.0f*(1-i);
-		else return 2.0f*i;
-	}
-	
-	private final float square(float i) {
-		i = i - (int)i;
-		if (i > 0.5f) return 0.0f;
-		else return 1.0f;
-	}
-	
-	protected Vector4 _valueRGBA(float u, float v) {
-		float su = 0.0f; 
-		float sv = 0.0f;
-		
-		if (functionU.getEnumPos() == 0) su = FMath.cos(FMath.PI*2.0f*scaleX.get()*(u+0.5f))*0.5f + 0.5f;
-		else if (functionU.getEnumPos() == 1) su = saw(scaleX.get()*u);
-		else if (functionU.getEnumPos() == 2) su = square(scaleX.get()*u);
-		if (functionV.getEnumPos() == 0) sv = FMath.cos(FMath.PI*2.0f*scaleY.get()*(v+0.5f))*0.5f + 0.5f;
-		else if (functionV.getEnumPos() == 1) sv = saw(scaleY.get()*v);
-		else if (functionV.getEnumPos() == 2) sv = square(scaleY.get()*v);
-		
-		
-		float val = 0.0f;
-		if (type.getEnumPos() == 0) val = su*sv; 
-		else if (type.getEnumPos() == 1) val = (su+sv)*0.5f; 
-		else if (type.getEnumPos() == 2) val = Math.max(su, sv);
-		else if (type.getEnumPos() == 3) val = Math.min(su, sv);
-		else if (type.getEnumPos() == 4) val = FMath.pow(su, sv);
-
-		return colorGradientParam.get().getColor(val);
+	/** A periodic 1d function of t with the given frequency. */
+	static abstract class Wave {
+		abstract float value(float scale, float t, boolean fast);
+	}
+	
+	static final class Sin extends Wave {
+		float value(float scale, float t, boolean fast) {
+			return FMath.cos(FMath.PI*2.0f*scale*(t+0.5f), fast)*0.5f + 0.5f;
+		}
+	}
+	
+	static final class Saw extends Wave {
+		float value(float scale, float t, boolean fast) {
+			float i = scale*t;
+			i = i - (int)i;
+			if (i > 0.5f) return 2.0f*(1-i);
+			else return 2.0f*i;
+		}
+	}
+	
+	static final class Square extends Wave {
+		float value(float scale, float t, boolean fast) {
+			float i = scale*t;
+			i = i - (int)i;
+			if (i > 0.5f) return 0.0f;
+			else return 1.0f;
+		}
+	}
+	
+	/** Combines the u and v wave into the final value. */
+	static abstract class Combiner {
+		abstract float combine(float su, float sv, boolean fast);
+	}
+	
+	static final class Multiply extends Combiner {
+		float combine(float su, float sv, boolean fast) { return su*sv; }
+	}
+	
+	static final class Add extends Combiner {
+		float combine(float su, float sv, boolean fast) { return (su+sv)*0.5f; }
+	}
+	
+	static final class Max extends Combiner {
+		float combine(float su, float sv, boolean fast) { return Math.max(su, sv); }
+	}
+	
+	static final class Min extends Combiner {
+		float combine(float su, float sv, boolean fast) { return Math.min(su, sv); }
+	}
+	
+	static final class Pow extends Combiner {
+		float combine(float su, float sv, boolean fast) { return FMath.pow(su, sv, fast); }
+	}
+	
+	// indexed by the enum positions of functionU/functionV and type
+	static final Wave[] WAVES = { new Sin(), new Saw(), new Square() };
+	static final Combiner[] COMBINERS = { new Multiply(), new Add(), new Max(), new Min(), new Pow() };
+	
+	// resolved from the enum parameters in parameterChanged
+	Wave waveU = WAVES[0];
+	Wave waveV = WAVES[0];
+	Combiner combiner = COMBINERS[0];
+	
+	public void parameterChanged(AbstractParam source) {
+		waveU = WAVES[functionU.getEnumPos()];
+		waveV = WAVES[functionV.getEnumPos()];
+		combiner = COMBINERS[type.getEnumPos()];
+		super.parameterChanged(source);
+	}
+	
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
+		float su = waveU.value(scaleX.get(), u, fastMath);
+		float sv = waveV.value(scaleY.get(), v, fastMath);
+		return combiner.combine(su, sv, fastMath);
 	}
 }
@@ -19,7 +19,6 @@ package engine.graphics.synthesis.texture;
 
 import com.mystictri.neotextureedit.TextureEditor;
 import engine.base.FMath;
-import engine.base.Vector4;
 import engine.parameters.ColorGradientParam;
 import engine.parameters.EnumParam;
 
@@ -41,7 +40,11 @@ public final class PatternGradient extends Pattern {
 	public PatternGradient() {
 	}
 
-	protected Vector4 _valueRGBA(float u, float v) {
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
 		float pos = 0.0f;
 		
 		if (gradientType.getEnumPos() == 0) { // Linear
@@ -57,6 +60,6 @@ public final class PatternGradient extends Pattern {
 			TextureEditor.logger.error("Invalid gradientType");
 		}
 		
-		return colorGradientParam.get().getColor(pos);
+		return pos;
 	}
 }
@@ -17,6 +17,8 @@
 
 package engine.graphics.synthesis.texture;
 
+import engine.base.FMath;
+import engine.base.Matrix3x3;
 import engine.base.Vector3;
 import engine.base.Vector4;
 import engine.parameters.AbstractParam;
@@ -37,7 +39,9 @@ public final class PatternPerlinNoise extends Pattern {
 	public String getHelpText() {
 		return "An implementation of Improved Perlin Noise. \n" +
 				"See (http://mrl.nyu.edu/~perlin/noise/).\n" +
-				"A seed of -1 uses the reference permutation.";
+				"A seed of -1 uses the reference permutation.\n" +
+				"Band Limit: fades out the bands that are finer than a pixel\n" +
+				"of the computed image (faster previews and less aliasing).";
 	}
 	
 	ColorGradientParam colorGradientParam = CreateLocalColorGradientParam("Color Mapping");
@@ -53,6 +57,7 @@ public final class PatternPerlinNoise extends Pattern {
 	IntParam endBand = CreateLocalIntParam("EndBand", 8, 1, 16);
 	IntParam seed = CreateLocalIntParam("Seed", -1, -1, Integer.MAX_VALUE);
 	BoolParam periodic = CreateLocalBoolParam("Periodic", true);
+	BoolParam bandLimit = CreateLocalBoolParam("Band Limit", false);
 	
 	
 	public PatternPerlinNoise() {
@@ -95,21 +100,80 @@ public final class PatternPerlinNoise extends Pattern {
 		super.parameterChanged(source);
 	}
 
-	public Vector4 _valueRGBA(float u, float v) {
-		float val = 0.0f;
-		float mult = 1.0f;
-		float freq = 1.0f;
+	/**
+	 * The band frequencies, weights and periods snapshot in prepare; the
+	 * per pixel loop does not query any parameter. With band limiting the
+	 * bands above 1/4 cycle per pixel are faded out and bands above the
+	 * Nyquist limit (1/2 cycle per pixel) are skipped; their average over a
+	 * pixel is about 0.
+	 */
+	static final class State {
+		final float scaleX, scaleY, valueScale;
+		final boolean periodic;
+		final float[] freq, mult;
+		final int[] periodX, periodY;
 		
-		for (int i = 1; i < startBand.get(); i++) {
-			freq *= 2.0f;
+		State(PatternPerlinNoise p, float footprint) {
+			scaleX = p.scaleX.get();
+			scaleY = p.scaleY.get();
+			valueScale = p.valueScale.get();
+			periodic = p.periodic.get();
+			
+			final int start = p.startBand.get();
+			int n = Math.max(0, p.endBand.get() - start + 1);
+			
+			// cycles per output pixel of a band with frequency 1 (a noise band
+			// has most of its energy at about half a cycle per lattice cell)
+			float cycles = 0.0f;
+			if (p.bandLimit.get() && footprint > 0.0f) {
+				final Matrix3x3 m = p.transformation.getMatrix();
+				float su = FMath.sqrt(m.get(0)*m.get(0) + m.get(3)*m.get(3));
+				float sv = FMath.sqrt(m.get(1)*m.get(1) + m.get(4)*m.get(4));
+				cycles = 0.5f * footprint * Math.max(su, sv) * Math.max(scaleX, scaleY);
+			}
+			
+			float f = 1.0f;
+			for (int i = 1; i < start; i++) {
+				f *= 2.0f;
+			}
+			if (cycles > 0.0f) {
+				int bands = 0;
+				for (float g = f; bands < n && g * cycles < 0.5f; g *= 2.0f) bands++;
+				n = bands;
+			}
+			
+			freq = new float[n];
+			mult = new float[n];
+			periodX = new int[n];
+			periodY = new int[n];
+			
+			for (int i = 0; i < n; i++) {
+				freq[i] = f;
+				mult[i] = p.spectralControl.get(start + i, 0.5f);
+				if (f * cycles > 0.25f) mult[i] *= (0.5f - f * cycles) * 4.0f;
+				periodX[i] = (int)(f*scaleX);
+				periodY[i] = (int)(f*scaleY);
+				f *= 2.0f;
+			}
 		}
+	}
+	
+	State state;
+	
+	protected void prepare() {
+		state = new State(this, footprint);
+	}
+
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
+		final State s = state;
+		float val = 0.0f;
 		
-		
-		boolean isPeriodic = periodic.get();
-		
-		for (int i = startBand.get(); i <= endBand.get(); i++) {
-			
-			mult = spectralControl.get(i, 0.5f);
+		for (int i = 0; i < s.freq.length; i++) {
+			final float freq = s.freq[i];
 			//Torus sampling of noise for periodicity
 			/*float x = (4 + 1*FMath.cos(v * 2.0f * FMath.PI)) * FMath.cos(u * 2.0f * FMath.PI);
 			float y = (4 + 1*FMath.cos(v * 2.0f * FMath.PI)) * FMath.sin(u * 2.0f * FMath.PI);
@@ -123,20 +187,45 @@ public final class PatternPerlinNoise extends Pattern {
 			
 			// seems to be a better periodic force
 			float valueAdd = 0.0f;
-			if (isPeriodic) valueAdd = noise.sample3dPeriodic(new Vector3(u*freq*scaleX.get(), v*freq*scaleY.get(),0.0f), (int)(freq*scaleX.get()), (int)(freq*scaleY.get()), 256)*mult;
-			else valueAdd = noise.sample(new Vector3(u*freq*scaleX.get(), v*freq*scaleY.get(), 0.0f))*mult;
+			if (s.periodic) valueAdd = noise.sample3dPeriodic(new Vector3(u*freq*s.scaleX, v*freq*s.scaleY,0.0f), s.periodX[i], s.periodY[i], 256)*s.mult[i];
+			else valueAdd = noise.sample(new Vector3(u*freq*s.scaleX, v*freq*s.scaleY, 0.0f))*s.mult[i];
 			
 			val += valueAdd;
-			
-			
-			freq *= 2.0f;
-			//mult *= persistence.get();
 		}
 		val = val*0.5f + 0.5f;
-		val *= valueScale.get();
+		val *= s.valueScale;
 		if (val > 1.0f) val = 1.0f;
 		if (val < 0.0f) val = 0.0f;
 		
-		return colorGradientParam.get().getColor(val);
+		return val;
+	}
+	
+	protected boolean _valueRGBA_d(float u, float v, Vector4 val, Vector4 du, Vector4 dv) {
+		final State s = state;
+		final Vector3 g = new Vector3();
+		float n = 0.0f, nu = 0.0f, nv = 0.0f;
+		
+		for (int i = 0; i < s.freq.length; i++) {
+			final float freq = s.freq[i];
+			float valueAdd = 0.0f;
+			if (s.periodic) valueAdd = noise.sample3dPeriodic_d(new Vector3(u*freq*s.scaleX, v*freq*s.scaleY,0.0f), s.periodX[i], s.periodY[i], 256, g)*s.mult[i];
+			else valueAdd = noise.sample_d(new Vector3(u*freq*s.scaleX, v*freq*s.scaleY, 0.0f), g)*s.mult[i];
+			
+			n += valueAdd;
+			nu += g.x*freq*s.scaleX*s.mult[i];
+			nv += g.y*freq*s.scaleY*s.mult[i];
+		}
+		n = n*0.5f + 0.5f;
+		n *= s.valueScale;
+		nu *= 0.5f*s.valueScale;
+		nv *= 0.5f*s.valueScale;
+		if (n > 1.0f) { n = 1.0f; nu = nv = 0.0f; }
+		if (n < 0.0f) { n = 0.0f; nu = nv = 0.0f; }
+		
+		final Vector4 dc = new Vector4();
+		val.set(colorGradientParam.get().getColor_d(n, dc));
+		du.set(dc).mult_ip(nu);
+		dv.set(dc).mult_ip(nv);
+		return true;
 	}
 }
@@ -2,12 +2,15 @@ package engine.graphics.synthesis.texture;
 
 import java.awt.image.BufferedImage;
 
-import engine.base.FMath;
+import engine.base.FRandom;
 import engine.base.Utils;
 import engine.base.Vector4;
+import engine.base.datastructure.NdPointIndex;
 import engine.base.datastructure.NdVector;
 import engine.base.datastructure.PointKDTree;
+import engine.base.datastructure.RandomizedKDForest;
 import engine.parameters.AbstractParam;
+import engine.parameters.EnumParam;
 import engine.parameters.ImageParam;
 import engine.parameters.InfoParam;
 import engine.parameters.IntParam;
@@ -28,8 +31,10 @@ public final class PatternSynthesis extends Pattern {
 	ImageParam image = CreateLocalImageParam("InputImg", "");
 	InfoParam resolutionInfo = CreateLocalInfoParam("InputRes", "Resolution: ");
 	IntParam targetResolution = CreateLocalIntParam("TargetRes", 32, 1, Integer.MAX_VALUE);
-	IntParam borderWidth = CreateLocalIntParam("Border", 2, 1, 5);
+	IntParam borderWidth = CreateLocalIntParam("Border", 2, 1, 8);
 	IntParam seed = CreateLocalIntParam("Seed", 0, 0, Integer.MAX_VALUE);
+	EnumParam searchMethod = CreateLocalEnumParam("Search", "Exact,Approximate");
+	IntParam searchChecks = CreateLocalIntParam("Checks", 256, 1, Integer.MAX_VALUE);
 
 	int _targetRes = 0;
 	// FloatBuffer targetBuffer;
@@ -47,7 +52,11 @@ public final class PatternSynthesis extends Pattern {
 	public String getHelpText() {
 		return "EXPERIMENTAL: still in development\n " +
 				"Currently it is SLOW and uses a huge amount of memory. \n" +
-				"Please use only SMALL input patches.";
+				"Please use only SMALL input patches.\n\n" +
+				"Search: Exact uses a kd-tree; Approximate uses a randomized kd-forest\n" +
+				"which is much faster for large borders.\n" +
+				"Checks: max. # of compared neighborhoods per pixel for Approximate\n" +
+				"search (higher is more accurate but slower).";
 	}
 	
 	public PatternSynthesis() {
@@ -146,20 +155,19 @@ public final class PatternSynthesis extends Pattern {
 		//long time = System.currentTimeMillis();
 
 		System.out.println("initTargetBuffer:");
-		if (targetResolution.get() != _targetRes) {
-			_targetRes = targetResolution.get();
-			System.out.println("  Createing new Target Buffer with target res: " + _targetRes);
-			tgtBuffer = new int[_targetRes * _targetRes];
-		}
+		// always a new buffer since clones share it (see parametersCopied)
+		_targetRes = targetResolution.get();
+		System.out.println("  Createing new Target Buffer with target res: " + _targetRes);
+		int[] tgtBuffer = new int[_targetRes * _targetRes];
+		this.tgtBuffer = tgtBuffer;
 
 		System.out.println("  Filling with random samples");
-		FMath.setSeed(seed.get());
+		FRandom rnd = new FRandom(seed.get());
 		// now fill with random pixels
 		for (int i = 0; i < tgtBuffer.length; i++) {
-			int x = (int) (FMath.random() * _srcRes);
-			int y = (int) (FMath.random() * _srcRes);
+			int x = (int) (rnd.nextFloat() * _srcRes);
+			int y = (int) (rnd.nextFloat() * _srcRes);
 			tgtBuffer[i] = src.getRGB(x, y); // !!TOOPT
-			// tgtBuffer[i] = FMath.randomInt();
 		}
 
 		System.out.print("  Searching for best match:");
@@ -196,7 +204,8 @@ public final class PatternSynthesis extends Pattern {
 	}
 	
 
-	PointKDTree<FeaturePoint> kdtree;
+	NdPointIndex<FeaturePoint> kdtree;
+	boolean sharedKDTree = false;
 
 	void initSrcBuffer(BufferedImage i) {
 		border = borderWidth.get();
@@ -210,7 +219,13 @@ public final class PatternSynthesis extends Pattern {
 		System.out.println("  Dimension is " + dimension + " (Border = "+border+")");
 		
 		System.out.println("   Creating KD:");
-		kdtree = new PointKDTree<FeaturePoint>(dimension);
+		if (searchMethod.getEnumPos() == 0) {
+			kdtree = new PointKDTree<FeaturePoint>(dimension);
+		} else {
+			RandomizedKDForest<FeaturePoint> forest = new RandomizedKDForest<FeaturePoint>(dimension);
+			forest.setMaxChecks(searchChecks.get());
+			kdtree = forest;
+		}
 		for (int sy = border; sy < _srcRes; sy++) {
 			for (int sx = border; sx < _srcRes - border; sx++) {
 
@@ -237,6 +252,7 @@ public final class PatternSynthesis extends Pattern {
 		
 
 		kdtree.build();
+		sharedKDTree = false;
 
 	}
 
@@ -253,8 +269,14 @@ public final class PatternSynthesis extends Pattern {
 		}
 	}
 
+	// set in parameterChanged; the buffers are computed in prepare so that a
+	// batch of changes (see LocalParameterManager.beginUpdate) synthesizes once
+	boolean srcDirty = true;
+	boolean targetDirty = true;
+	boolean checksDirty = false;
+
 	public void parameterChanged(AbstractParam source) {
-		if (source == null || source == image || source == borderWidth) {
+		if (source == null || source == image || source == borderWidth || source == searchMethod) {
 			BufferedImage i = image.getImage();
 			if (i != null) {
 				if (i.getWidth() != i.getHeight()) {
@@ -262,17 +284,57 @@ public final class PatternSynthesis extends Pattern {
 					return;
 				}
 				resolutionInfo.set("Resolution: " + i.getWidth() + "x" + i.getHeight());
-				initSrcBuffer(i);
-				initTargetBuffer();
+				srcDirty = true;
 			} else {
 				resolutionInfo.set("Resolution: ");
 			}
 		} else if (source == targetResolution || source == seed) {
-			BufferedImage i = image.getImage();
-			if (i != null) initTargetBuffer();
+			targetDirty = true;
+		} else if (source == searchChecks) {
+			checksDirty = true;
 		}
 
 		super.parameterChanged(source);
 	}
 
+	protected void prepare() {
+		BufferedImage i = image.getImage();
+		if (i != null && i.getWidth() == i.getHeight()) {
+			if (srcDirty) {
+				initSrcBuffer(i);
+				initTargetBuffer();
+			} else if (checksDirty && kdtree instanceof RandomizedKDForest) {
+				if (sharedKDTree) {
+					// the forest of the original must not change
+					initSrcBuffer(i);
+				} else {
+					((RandomizedKDForest<?>)kdtree).setMaxChecks(searchChecks.get());
+				}
+				initTargetBuffer();
+			} else if (targetDirty) {
+				initTargetBuffer();
+			}
+		}
+		srcDirty = false;
+		targetDirty = false;
+		checksDirty = false;
+	}
+
+	// shares the source image data, the kd-tree and the synthesized result of
+	// the original instead of computing them again
+	protected void parametersCopied(Channel source) {
+		PatternSynthesis c = (PatternSynthesis) source;
+		border = c.border;
+		_srcRes = c._srcRes;
+		srcBuffer = c.srcBuffer;
+		kdtree = c.kdtree;
+		sharedKDTree = true;
+		c.sharedKDTree = true;
+		_targetRes = c._targetRes;
+		tgtBuffer = c.tgtBuffer;
+		srcDirty = c.srcDirty;
+		targetDirty = c.targetDirty;
+		checksDirty = c.checksDirty;
+		super.parameterChanged(null);
+	}
 }
@@ -17,7 +17,6 @@
 
 package engine.graphics.synthesis.texture;
 
-import engine.base.Vector4;
 import engine.parameters.ColorGradientParam;
 import engine.parameters.FloatParam;
 
@@ -45,19 +44,23 @@ public final class PatternTile extends Pattern {
 		smooth.setDefaultIncrement(0.025f);
 	}
 
-	protected Vector4 _valueRGBA(float u, float v) {
-		if ((u < borderX.get()) || (u > (1.0f-borderX.get()))) return colorGradientParam.get().getColor(0.0f);
-		if ((v < borderY.get()) || (v > (1.0f-borderY.get()))) return colorGradientParam.get().getColor(0.0f);
+	protected ColorGradientParam getColorMapping() {
+		return colorGradientParam;
+	}
+	
+	protected float _value1f(float u, float v) {
+		if ((u < borderX.get()) || (u > (1.0f-borderX.get()))) return 0.0f;
+		if ((v < borderY.get()) || (v > (1.0f-borderY.get()))) return 0.0f;
 		
 		float distU = Math.min(u - borderX.get(), 1.0f - u - borderX.get());
 		float distV = Math.min(v - borderY.get(), 1.0f - v - borderY.get());
 		float dist = Math.min(distU, distV);
 		
 		if (dist < smooth.get()) {
-			return colorGradientParam.get().getColor(dist/smooth.get());
+			return dist/smooth.get();
 		}
 		
-		return colorGradientParam.get().getColor(1.0f);
+		return 1.0f;
 		
 		/*boolean white = (((int)((u*scaleX.get())*2.0) + ((int)((v*scaleY.get())*2.0)))&1)==0;
 		if (white) return 1.0f;
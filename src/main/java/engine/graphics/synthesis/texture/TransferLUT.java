@@ -0,0 +1,116 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package engine.graphics.synthesis.texture;
+
+import java.util.ArrayList;
+
+import engine.base.Vector4;
+import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+
+/**
+ * The transfer functions of a chain of channels (see
+ * Channel.hasTransferFunction) baked into one linearly interpolated lookup
+ * table per component for inputs in [0,1]. Inputs outside of [0,1] and in
+ * the first EXACT_ENTRIES intervals of the table are computed with the exact
+ * functions; functions like pow(x, a) with a < 1 are too steep close to 0
+ * for the linear interpolation.
+ */
+final class TransferLUT {
+	static final int EXACT_ENTRIES = 16;
+	
+	/** The input of the first channel of the chain */
+	final Channel input;
+	private final Channel[] chain;
+	private final int size;
+	private final float[][] table;
+
+	/**
+	 * Bakes the chain of channels with a transfer function that ends at last;
+	 * all channels need to be prepared.
+	 *
+	 * @return null if the tables are disabled (see Channel.setTransferLUTSize)
+	 *         or the chain is not connected
+	 */
+	static TransferLUT create(Channel last) {
+		final int size = Channel.getTransferLUTSize();
+		if (size == 0 || !last.hasTransferFunction())
+			return null;
+
+		ArrayList<Channel> chain = new ArrayList<Channel>();
+		Channel c = last;
+		while (c != null && c.hasTransferFunction()) {
+			chain.add(0, c);
+			c = c.inputChannels[0];
+		}
+		if (c == null)
+			return null;
+		return new TransferLUT(c, chain.toArray(new Channel[chain.size()]), size);
+	}
+
+	private TransferLUT(Channel input, Channel[] chain, int size) {
+		this.input = input;
+		this.chain = chain;
+		this.size = size;
+		table = new float[4][size + 2];
+		for (int comp = 0; comp < 4; comp++) {
+			final float[] t = table[comp];
+			for (int i = 0; i <= size; i++) {
+				t[i] = exact(comp, (float) i / size);
+			}
+			t[size + 1] = t[size]; // so that map can always read i+1
+		}
+	}
+
+	private float exact(int comp, float x) {
+		for (Channel c : chain) {
+			x = c.transferFunction(comp, x);
+		}
+		return x;
+	}
+
+	private float map(int comp, float x) {
+		final float f = x * size;
+		if (f >= EXACT_ENTRIES && x <= 1.0f) {
+			final float[] t = table[comp];
+			final int i = (int) f;
+			return t[i] + (f - i) * (t[i + 1] - t[i]);
+		}
+		return exact(comp, x);
+	}
+
+	/** Maps val (a value of input) through the chain in place */
+	Vector4 apply(Vector4 val) {
+		val.x = map(0, val.x);
+		val.y = map(1, val.y);
+		val.z = map(2, val.z);
+		val.w = map(3, val.w);
+		return val;
+	}
+
+	/** Computes the tile out of the last channel of the chain from the cache of input */
+	void computeTile(TileCacheEntry out) {
+		final TileCacheEntry in = CacheTileManager.getPreparedCache(input, out.px, out.py, out.xres, out.yres, out.globalXres, out.globalYres);
+		// same pixel order and local coordinates as TileCacheEntry.compute
+		final int b = out.border;
+		for (int y = 0, idx = 0; y < out.yres + 2 * b; y++) {
+			for (int x = 0; x < out.xres + 2 * b; x++, idx++) {
+				out.put(idx, apply(in.sample(b + x, b + y)));
+			}
+		}
+	}
+}
@@ -17,13 +17,17 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Vector;
 
 public class AbstractParam {
-	public static boolean GLOBAL_SILENT = false;
+	// the nesting depth of beginSilent per thread
+	private static final ThreadLocal<int[]> silentDepth = ThreadLocal.withInitial(() -> new int[1]);
 	
 	protected String name;
 	protected boolean silent = false;
@@ -43,10 +47,45 @@ public class AbstractParam {
 		System.out.println("Warning: unimplemented save method in param " + name + " " + this);
 	}
 	
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		System.out.println("Warning: unimplemented load method in param " + name + " " + this);
 	}
 	
+	// the binary counterparts of save and load (see com.mystictri.neotexture.TextureGraphBinary)
+	public void saveBinary(DataOutput w) throws IOException {
+		System.out.println("Warning: unimplemented saveBinary method in param " + name + " " + this);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		System.out.println("Warning: unimplemented loadBinary method in param " + name + " " + this);
+	}
+	
+	/**
+	 * Sets the value of this parameter to the value of p, which is a parameter
+	 * of the same type, as load would set it. Used to copy channels without
+	 * saving and loading them.
+	 */
+	public void copyFrom(AbstractParam p) {
+		System.out.println("Warning: unimplemented copyFrom method in param " + name + " " + this);
+	}
+	
+	/** Writes s as its length in bytes followed by the UTF-8 bytes */
+	public static void writeBinaryString(DataOutput w, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		w.writeInt(bytes.length);
+		w.write(bytes);
+	}
+	
+	/** Reads a string written by writeBinaryString */
+	public static String readBinaryString(ByteBuffer b) {
+		int length = b.getInt();
+		if (length < 0 || length > b.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
 	public String getName() {
 		return name;
 	}
@@ -55,8 +94,27 @@ public class AbstractParam {
 		this.silent = silent;
 	}
 	
+	/**
+	 * Suppresses the notifications of all parameters changed by the current
+	 * thread until the matching endSilent (for example while a channel is
+	 * loaded); other threads are not affected. Calls can be nested and
+	 * endSilent should be called in a finally block.
+	 */
+	public static void beginSilent() {
+		silentDepth.get()[0]++;
+	}
+	
+	public static void endSilent() {
+		silentDepth.get()[0]--;
+	}
+	
+	/** @return true if the current thread is between beginSilent and endSilent */
+	public static boolean isSilentThread() {
+		return silentDepth.get()[0] > 0;
+	}
+	
 	public void notifyParamChangeListener() {
-		if (GLOBAL_SILENT || silent) return;
+		if (silent || isSilentThread()) return;
 		for (int i = 0; i < changeListener.size(); i++) {
 			changeListener.get(i).parameterChanged(this);
 		}
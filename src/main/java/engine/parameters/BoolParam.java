@@ -17,9 +17,10 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 public final class BoolParam extends AbstractParam {
 	boolean value;
@@ -35,10 +36,22 @@ public final class BoolParam extends AbstractParam {
 		w.write(value+" ");
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		set(s.nextBoolean());
 	}
 	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeBoolean(value);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		set(b.get() != 0);
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		set(((BoolParam) p).value);
+	}
+	
 	
 	public void set(boolean v) {
 		if (value == v) return;
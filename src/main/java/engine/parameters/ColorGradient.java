@@ -148,4 +148,34 @@ public final class ColorGradient {
 		return ret;
 	}
 	
+	/**
+	 * Same as getColor but also stores the derivative of the color with
+	 * respect to pos in deriv (zero outside of the gradient range).
+	 */
+	public Vector4 getColor_d(float pos, Vector4 deriv) {
+		deriv.set(0.0f);
+		Vector4 ret = new Vector4();
+		
+		if (pos <= entries.firstElement().position) ret.set(entries.firstElement().color);
+		else if (pos >= entries.lastElement().position) ret.set(entries.lastElement().color);
+		else {
+			for (int i = 0; i < entries.size()-1; i++) {
+				if (entries.get(i+1).position > pos) {
+					Entry a = entries.get(i);
+					Entry b = entries.get(i+1);
+					
+					float interp = (pos-a.position)/(b.position-a.position);
+					ret.set(a.color);
+					ret.mult_ip(1.0f - interp);
+					ret.mult_add_ip(interp, b.color);
+					
+					deriv.set(b.color).sub_ip(a.color).mult_ip(1.0f/(b.position-a.position));
+					break;
+				}
+			}
+		}
+		
+		return ret;
+	}
+	
 }
@@ -17,9 +17,10 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 import engine.base.Vector4;
 
@@ -44,13 +45,41 @@ public final class ColorGradientParam extends AbstractParam {
 		}
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		m_Gradient.clear();
 		int num = s.nextInt();
 		for (int i = 0; i < num; i++) {
-			// !!TODO: this is a workaround for a weirded windows s.nextFloat bug;
-			//m_Gradient.addEntry(new Vector4(s.nextFloat(), s.nextFloat(), s.nextFloat(), s.nextFloat()), s.nextFloat());
-			m_Gradient.addEntry(new Vector4(Float.parseFloat(s.next()),Float.parseFloat(s.next()),Float.parseFloat(s.next()),Float.parseFloat(s.next())),Float.parseFloat(s.next()));
+			m_Gradient.addEntry(new Vector4(s.nextFloat(), s.nextFloat(), s.nextFloat(), s.nextFloat()), s.nextFloat());
+		}
+		notifyParamChangeListener();
+	}
+	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeInt(m_Gradient.getNumEntries());
+		for (int i = 0; i < m_Gradient.getNumEntries(); i++) {
+			Vector4 v = m_Gradient.getEntryColor(i);
+			w.writeFloat(v.x);
+			w.writeFloat(v.y);
+			w.writeFloat(v.z);
+			w.writeFloat(v.w);
+			w.writeFloat(m_Gradient.getEntryPosition(i));
+		}
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		m_Gradient.clear();
+		int num = b.getInt();
+		for (int i = 0; i < num; i++) {
+			m_Gradient.addEntry(new Vector4(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat()), b.getFloat());
+		}
+		notifyParamChangeListener();
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		ColorGradient g = ((ColorGradientParam) p).m_Gradient;
+		m_Gradient.clear();
+		for (int i = 0; i < g.getNumEntries(); i++) {
+			m_Gradient.addEntry(new Vector4(g.getEntryColor(i)), g.getEntryPosition(i));
 		}
 		notifyParamChangeListener();
 	}
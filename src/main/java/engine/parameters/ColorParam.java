@@ -17,9 +17,10 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 import engine.base.Vector3;
 
@@ -37,9 +38,23 @@ public final class ColorParam extends AbstractParam {
 		w.write(color.x+" "+color.y+" "+color.z+" ");
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
-		//set(s.nextFloat(), s.nextFloat(), s.nextFloat());
-		set(Float.parseFloat(s.next()),Float.parseFloat(s.next()),Float.parseFloat(s.next()));
+	public void load(Tokenizer s) {
+		set(s.nextFloat(), s.nextFloat(), s.nextFloat());
+	}
+	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeFloat(color.x);
+		w.writeFloat(color.y);
+		w.writeFloat(color.z);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		set(b.getFloat(), b.getFloat(), b.getFloat());
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		Vector3 c = ((ColorParam) p).color;
+		set(c.x, c.y, c.z);
 	}
 	
 	public void set(float r, float g, float b) {
@@ -1,8 +1,9 @@
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 public final class CurveParam  extends AbstractParam {
 	private final Curve curve;
@@ -21,10 +22,19 @@ public final class CurveParam  extends AbstractParam {
 		//w.write(valuePos+" ");
 	}
 
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		//!!TODO
 		//setEnumPos(s.nextInt());
 	}
+
+	public void saveBinary(DataOutput w) throws IOException {
+	}
+
+	public void loadBinary(ByteBuffer b) {
+	}
+
+	public void copyFrom(AbstractParam p) {
+	}
 	
 	public static CurveParam create(String name, int numCP, float min, float max) {
 		CurveParam ret = new CurveParam(name, numCP, min, max);
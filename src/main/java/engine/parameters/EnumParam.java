@@ -17,9 +17,10 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 /**
@@ -38,10 +39,8 @@ public final class EnumParam extends AbstractParam {
 		valuePos = 0;
 		this.name = name;
 		
-		Scanner s = new Scanner(enumList).useDelimiter(",");
-		
-		while (s.hasNext()) {
-			enums.add(s.next());
+		for (String e : enumList.split(",")) {
+			if (e.length() > 0) enums.add(e);
 		}
 		
 		if (enums.size() <= 0) System.err.println("WARNING: EnumParam with zero entries!");
@@ -55,10 +54,22 @@ public final class EnumParam extends AbstractParam {
 		w.write(valuePos+" ");
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		setEnumPos(s.nextInt());
 	}
 	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeInt(valuePos);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		setEnumPos(b.getInt());
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		setEnumPos(((EnumParam) p).valuePos);
+	}
+	
 	public int getNumEnums() {
 		return enums.size();
 	}
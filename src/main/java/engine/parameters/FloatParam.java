@@ -17,9 +17,10 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 public class FloatParam extends AbstractParam {
 	private float min;
@@ -43,10 +44,20 @@ public class FloatParam extends AbstractParam {
 		w.write(value+" ");
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
-		//set(s.nextFloat());
-		// !!TODO: this is a workaround for a locale problem
-		set(Float.parseFloat(s.next()));
+	public void load(Tokenizer s) {
+		set(s.nextFloat());
+	}
+	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeFloat(value);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		set(b.getFloat());
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		set(((FloatParam) p).value);
 	}
 	
 	public void increment() {
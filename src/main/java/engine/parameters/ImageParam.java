@@ -19,9 +19,10 @@ package engine.parameters;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 
@@ -46,25 +47,46 @@ public class ImageParam extends AbstractParam {
 	 * all spaces are replaced with colons (:) for easier string parsing.
 	 */
 	public void save(Writer w) throws IOException {
-		String relativePath;
-		// store only the relative path to the image (relative to the .tgr files);
-		if (TextureEditor.INSTANCE.m_CurrentFile != null) relativePath = Utils.getRelativePath(TextureEditor.INSTANCE.m_CurrentFile.getParentFile(), new File(filename));
-		else relativePath = filename;
-		
-		w.write(relativePath.replace(' ', ':') + " ");
+		w.write(getRelativePath().replace(' ', ':') + " ");
+	}
+	
+	// store only the relative path to the image (relative to the .tgr files);
+	private String getRelativePath() {
+		if (TextureEditor.INSTANCE.m_CurrentFile != null) return Utils.getRelativePath(TextureEditor.INSTANCE.m_CurrentFile.getParentFile(), new File(filename));
+		else return filename;
 	}
 
 	/**
 	 * Expects as next token the filename. Replaces all occurences of a colon
 	 * in the filename with a space and then tries to load the image from disk.
 	 */
-	public void load(Scanner s) {
-		String path = s.next().replace(':', ' ');
+	public void load(Tokenizer s) {
+		loadRelativePath(s.next().replace(':', ' '));
+	}
+	
+	private void loadRelativePath(String path) {
 		if (TextureEditor.INSTANCE.m_CurrentFile != null) path = TextureEditor.INSTANCE.m_CurrentFile.getParent() + File.separator + path;
 		System.out.println(path);
 		loadImage(path);
 	}
 	
+	/** Same as save but the path is stored as is (it may contain spaces) */
+	public void saveBinary(DataOutput w) throws IOException {
+		writeBinaryString(w, getRelativePath());
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		loadRelativePath(readBinaryString(b));
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		// the image is shared and not loaded again
+		ImageParam ip = (ImageParam) p;
+		filename = ip.filename;
+		image = ip.image;
+		notifyParamChangeListener();
+	}
+	
 	public BufferedImage getImage() {
 		return image;
 	}
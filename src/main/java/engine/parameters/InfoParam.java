@@ -1,8 +1,9 @@
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 /**
  * The InfoParam is no real parameter but contains a string that can be displayed. This param
@@ -23,7 +24,17 @@ public class InfoParam extends AbstractParam {
 	}
 
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
+	}
+	
+	public void saveBinary(DataOutput w) throws IOException {
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		set(((InfoParam) p).message);
 	}
 	
 	
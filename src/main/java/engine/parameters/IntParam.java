@@ -17,9 +17,10 @@
 
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 public class IntParam extends AbstractParam {
 	private int min;
@@ -40,10 +41,22 @@ public class IntParam extends AbstractParam {
 		w.write(value+" ");
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		set(s.nextInt());
 	}
 	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeInt(value);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		set(b.getInt());
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		set(((IntParam) p).value);
+	}
+	
 	public boolean checkBounds() {
 		if (value > max) {value = max; return false;}
 		if (value < min) {value = min; return false;}
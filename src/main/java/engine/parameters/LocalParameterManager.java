@@ -36,6 +36,34 @@ public class LocalParameterManager  implements ParamChangeListener {
 		
 	}
 	
+	private int updateDepth = 0;
+	
+	/**
+	 * Starts a batch of parameter changes that ends with commit; the calls can
+	 * be nested. parameterChanged is still called for every change but
+	 * subclasses can check isUpdating and defer expensive work (as the
+	 * invalidation of caches) to updateCommitted so that it is done only once
+	 * for the whole batch.
+	 */
+	public void beginUpdate() {
+		updateDepth++;
+	}
+	
+	/** Ends the batch started by beginUpdate; the outermost commit calls updateCommitted */
+	public void commit() {
+		if (updateDepth == 0) throw new IllegalStateException("commit without beginUpdate");
+		if (--updateDepth == 0) updateCommitted();
+	}
+	
+	/** @return true between beginUpdate and the matching commit */
+	public boolean isUpdating() {
+		return updateDepth > 0;
+	}
+	
+	/** Called by the outermost commit; does nothing by default */
+	protected void updateCommitted() {
+	}
+	
 	protected TextParam CreateLocalTextParam(String name, String value) {
 		TextParam p = TextParam.create(name, value);
 		m_LocalParameters.add(p);
@@ -119,6 +147,17 @@ public class LocalParameterManager  implements ParamChangeListener {
 		return m_LocalParameters;
 	}
 	
+	/**
+	 * Copies the values of all parameters of other (which has to be of the same
+	 * class so that the parameters are in the same order) to the parameters of
+	 * this manager (see AbstractParam.copyFrom).
+	 */
+	public void copyParametersFrom(LocalParameterManager other) {
+		for (int i = 0; i < m_LocalParameters.size(); i++) {
+			m_LocalParameters.get(i).copyFrom(other.m_LocalParameters.get(i));
+		}
+	}
+	
 	public AbstractParam getParamByName(String name) {
 		for (int i = 0; i < m_LocalParameters.size(); i++) {
 			if (m_LocalParameters.get(i).getName().equals(name)) return m_LocalParameters.get(i);
@@ -1,8 +1,9 @@
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 import engine.base.Matrix3x3;
 
@@ -25,9 +26,24 @@ public class Matrix3x3Param extends AbstractParam {
 			w.write(mat.get(i) + " ");
 	}
 
-	public void load(Scanner s) {
-		mat.set(Float.parseFloat(s.next()), Float.parseFloat(s.next()), Float.parseFloat(s.next()), Float.parseFloat(s.next()),
-				Float.parseFloat(s.next()), Float.parseFloat(s.next()), Float.parseFloat(s.next()), Float.parseFloat(s.next()), Float.parseFloat(s.next()));
+	public void load(Tokenizer s) {
+		mat.set(s.nextFloat(), s.nextFloat(), s.nextFloat(), s.nextFloat(),
+				s.nextFloat(), s.nextFloat(), s.nextFloat(), s.nextFloat(), s.nextFloat());
+		notifyParamChangeListener();
+	}
+	
+	public void saveBinary(DataOutput w) throws IOException {
+		for (int i = 0; i < 9; i++)
+			w.writeFloat(mat.get(i));
+	}
+
+	public void loadBinary(ByteBuffer b) {
+		mat.set(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat());
+		notifyParamChangeListener();
+	}
+
+	public void copyFrom(AbstractParam p) {
+		mat.set(((Matrix3x3Param) p).mat);
 		notifyParamChangeListener();
 	}
 	
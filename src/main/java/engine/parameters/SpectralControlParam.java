@@ -1,8 +1,9 @@
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 /**
@@ -29,15 +30,36 @@ public final class SpectralControlParam extends AbstractParam {
 		}
 	}
 
-	public void load(Scanner s) {
+	public void load(Tokenizer s) {
 		values.clear();
 		int num = s.nextInt();
 		for (int i = 0; i < num; i++) {
-			values.add(Float.parseFloat(s.next()));
+			values.add(s.nextFloat());
 		}
 		notifyParamChangeListener();
 	}
 	
+	public void saveBinary(DataOutput w) throws IOException {
+		w.writeInt(values.size());
+		for (float i : values) {
+			w.writeFloat(i);
+		}
+	}
+
+	public void loadBinary(ByteBuffer b) {
+		values.clear();
+		int num = b.getInt();
+		for (int i = 0; i < num; i++) {
+			values.add(b.getFloat());
+		}
+		notifyParamChangeListener();
+	}
+
+	public void copyFrom(AbstractParam p) {
+		values = new Vector<Float>(((SpectralControlParam) p).values);
+		notifyParamChangeListener();
+	}
+	
 	public int getStartBand() {
 		return startBand;
 	}
@@ -1,9 +1,9 @@
 package engine.parameters;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
 
 /**
  * A simple text parameter storing a string. It should not contain ""
@@ -24,9 +24,20 @@ public class TextParam extends AbstractParam {
 		w.write("\""+value+"\" ");
 	}
 	// loads only the value; uses the set method to set it (thus change listener are notified)
-	public void load(Scanner s) {
-		String text = s.next(Pattern.compile("\".*\""));
-		set(text.substring(1, text.length()-1));
+	public void load(Tokenizer s) {
+		set(s.nextQuoted());
+	}
+	
+	public void saveBinary(DataOutput w) throws IOException {
+		writeBinaryString(w, value);
+	}
+	
+	public void loadBinary(ByteBuffer b) {
+		set(readBinaryString(b));
+	}
+	
+	public void copyFrom(AbstractParam p) {
+		set(((TextParam) p).value);
 	}
 	
 	
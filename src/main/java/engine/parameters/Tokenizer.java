@@ -0,0 +1,223 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package engine.parameters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits the ascii texture graph format into whitespace separated tokens (as
+ * the default java.util.Scanner) without using regular expressions. The
+ * characters are read in blocks from a Reader or come from a single buffer
+ * (for example a memory mapped file; see open). As the Scanner methods the
+ * next methods throw a NoSuchElementException at the end of the input and an
+ * InputMismatchException if the token has the wrong format.
+ */
+public final class Tokenizer {
+	private final Reader reader;
+	private char[] buf;
+	private int pos = 0;
+	private int end;
+
+	/** Reads the tokens from reader; the reader is read in blocks when needed */
+	public Tokenizer(Reader reader) {
+		this.reader = reader;
+		buf = new char[8192];
+		end = 0;
+	}
+
+	/** Reads the tokens from the given characters */
+	public Tokenizer(CharSequence chars) {
+		reader = null;
+		buf = chars.toString().toCharArray();
+		end = buf.length;
+	}
+
+	private Tokenizer(CharBuffer chars) {
+		reader = null;
+		buf = chars.array();
+		pos = chars.arrayOffset() + chars.position();
+		end = chars.arrayOffset() + chars.limit();
+	}
+
+	/** Maps the given (UTF-8) file into memory and reads the tokens from it */
+	public static Tokenizer open(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel fc = fis.getChannel();
+			return new Tokenizer(StandardCharsets.UTF_8.decode(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size())));
+		} finally {
+			fis.close();
+		}
+	}
+
+	// returns the char at pos+offset or -1 at the end of the input; reading
+	// more input may move the buffer content so that pos changes
+	private int peek(int offset) {
+		while (pos + offset >= end) {
+			if (!fill())
+				return -1;
+		}
+		return buf[pos + offset];
+	}
+
+	private boolean fill() {
+		if (reader == null)
+			return false;
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, end - pos);
+			end -= pos;
+			pos = 0;
+		}
+		if (end == buf.length) {
+			char[] n = new char[buf.length * 2];
+			System.arraycopy(buf, 0, n, 0, end);
+			buf = n;
+		}
+		try {
+			int n = reader.read(buf, end, buf.length - end);
+			if (n <= 0)
+				return false;
+			end += n;
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void skipWhitespace() {
+		int c;
+		while ((c = peek(0)) != -1 && Character.isWhitespace(c)) {
+			pos++;
+		}
+	}
+
+	// skips the whitespace and returns the length of the next token
+	private int tokenLength() {
+		skipWhitespace();
+		int len = 0;
+		int c;
+		while ((c = peek(len)) != -1 && !Character.isWhitespace(c)) {
+			len++;
+		}
+		return len;
+	}
+
+	public boolean hasNext() {
+		return tokenLength() > 0;
+	}
+
+	public String next() {
+		int len = tokenLength();
+		if (len == 0)
+			throw new NoSuchElementException();
+		String ret = new String(buf, pos, len);
+		pos += len;
+		return ret;
+	}
+
+	// returns the value of the integer token of the given length at pos or
+	// null if it is no integer
+	private Integer parseInt(int len) {
+		int i = 0;
+		boolean negative = false;
+		if (len > 0 && (buf[pos] == '-' || buf[pos] == '+')) {
+			negative = (buf[pos] == '-');
+			i++;
+		}
+		if (i == len)
+			return null;
+		long value = 0;
+		for (; i < len; i++) {
+			char c = buf[pos + i];
+			if (c < '0' || c > '9')
+				return null;
+			value = value * 10 + (c - '0');
+			if (value > (long) Integer.MAX_VALUE + 1)
+				return null;
+		}
+		if (negative)
+			value = -value;
+		if (value > Integer.MAX_VALUE)
+			return null;
+		return (int) value;
+	}
+
+	public boolean hasNextInt() {
+		return parseInt(tokenLength()) != null;
+	}
+
+	public int nextInt() {
+		int len = tokenLength();
+		if (len == 0)
+			throw new NoSuchElementException();
+		Integer ret = parseInt(len);
+		if (ret == null)
+			throw new InputMismatchException(new String(buf, pos, len));
+		pos += len;
+		return ret;
+	}
+
+	public float nextFloat() {
+		String t = next();
+		try {
+			return Float.parseFloat(t);
+		} catch (NumberFormatException e) {
+			throw new InputMismatchException(t);
+		}
+	}
+
+	public boolean nextBoolean() {
+		String t = next();
+		if (t.equalsIgnoreCase("true"))
+			return true;
+		if (t.equalsIgnoreCase("false"))
+			return false;
+		throw new InputMismatchException(t);
+	}
+
+	/**
+	 * Reads a string in double quotes (as saved by TextParam) and returns it
+	 * without the quotes; the string may contain whitespace.
+	 */
+	public String nextQuoted() {
+		skipWhitespace();
+		if (peek(0) == -1)
+			throw new NoSuchElementException();
+		if (peek(0) != '"')
+			throw new InputMismatchException(next());
+		int len = 1;
+		int c;
+		while ((c = peek(len)) != '"') {
+			if (c == -1)
+				throw new InputMismatchException("Missing closing quote");
+			len++;
+		}
+		String ret = new String(buf, pos + 1, len - 1);
+		pos += len + 1;
+		return ret;
+	}
+}
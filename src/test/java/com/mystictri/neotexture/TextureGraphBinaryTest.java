@@ -0,0 +1,58 @@
+package com.mystictri.neotexture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.mystictri.neotexture.TextureGraph.TextureNodeConnection;
+
+import engine.graphics.synthesis.texture.FilterBlend;
+import engine.graphics.synthesis.texture.PatternPerlinNoise;
+
+public class TextureGraphBinaryTest {
+	static byte[] save() throws IOException {
+		TextureGraph g = new TextureGraph();
+		TextureGraphNode a = new TextureGraphNode(new PatternPerlinNoise());
+		TextureGraphNode blend = new TextureGraphNode(new FilterBlend());
+		g.addNode(a);
+		g.addNode(blend);
+		g.addConnection(new TextureNodeConnection(a.getOutputConnectionPoint(), blend.getInputConnectionPointByChannelIndex(0)));
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		TextureGraphBinary.save(g, os);
+		return os.toByteArray();
+	}
+
+	@Test
+	public void loadsSavedGraphs() throws IOException {
+		TextureGraph g = new TextureGraph();
+		assertTrue(TextureGraphBinary.load(g, ByteBuffer.wrap(save())));
+		assertEquals(2, g.getAllNodes().size());
+		assertEquals(1, g.allConnections.size());
+	}
+
+	@Test
+	public void truncatedDataDoesNotThrow() throws IOException {
+		byte[] data = save();
+		for (int length = 0; length < data.length; length++) {
+			TextureGraph g = new TextureGraph();
+			if (!TextureGraphBinary.load(g, ByteBuffer.wrap(data, 0, length)))
+				assertEquals(0, g.getAllNodes().size());
+		}
+	}
+
+	@Test
+	public void corruptCountsAreRejected() throws IOException {
+		byte[] data = save();
+		// the number of strings in the first section
+		ByteBuffer.wrap(data).putInt(16, Integer.MAX_VALUE);
+		TextureGraph g = new TextureGraph();
+		assertFalse(TextureGraphBinary.load(g, ByteBuffer.wrap(data)));
+		assertEquals(0, g.getAllNodes().size());
+	}
+}
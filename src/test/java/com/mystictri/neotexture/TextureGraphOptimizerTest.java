@@ -0,0 +1,85 @@
+package com.mystictri.neotexture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.mystictri.neotexture.TextureGraph.TextureNodeConnection;
+
+import engine.base.Vector4;
+import engine.graphics.synthesis.texture.Channel;
+import engine.graphics.synthesis.texture.FilterBlend;
+import engine.graphics.synthesis.texture.FilterMath1;
+import engine.graphics.synthesis.texture.PatternConstantColor;
+import engine.graphics.synthesis.texture.PatternPerlinNoise;
+import engine.parameters.FloatParam;
+
+public class TextureGraphOptimizerTest {
+	static TextureGraphNode node(TextureGraph g, Channel c) {
+		TextureGraphNode n = new TextureGraphNode(c);
+		g.addNode(n);
+		return n;
+	}
+
+	static void connect(TextureGraph g, TextureGraphNode source, TextureGraphNode target, int idx) {
+		g.addConnection(new TextureNodeConnection(source.getOutputConnectionPoint(), target.getInputConnectionPointByChannelIndex(idx)));
+	}
+
+	@Test
+	public void optimizesDeepGraphs() {
+		TextureGraph g = new TextureGraph();
+		TextureGraphNode cur = node(g, new PatternPerlinNoise());
+		for (int i = 0; i < 20000; i++) {
+			FilterMath1 m = new FilterMath1();
+			((FloatParam) m.getParamByName("A")).set(1.0f);
+			TextureGraphNode n = node(g, m);
+			connect(g, cur, n, 0);
+			cur = n;
+		}
+		cur.getChannel().exportName.set("out");
+
+		assertEquals(0, TextureGraphOptimizer.optimize(g));
+		assertEquals(20001, g.getAllNodes().size());
+	}
+
+	@Test
+	public void mergesIdenticalNodes() {
+		TextureGraph g = new TextureGraph();
+		TextureGraphNode a = node(g, new PatternPerlinNoise());
+		TextureGraphNode b = node(g, new PatternPerlinNoise());
+		TextureGraphNode blend = node(g, new FilterBlend());
+		connect(g, a, blend, 0);
+		connect(g, b, blend, 1);
+		blend.getChannel().exportName.set("out");
+
+		assertEquals(1, TextureGraphOptimizer.optimize(g));
+		TextureGraphNode kept = g.getAllNodes().get(0);
+		assertSame(kept.getOutputConnectionPoint(), g.getConnectionAtInputPoint(blend.getInputConnectionPointByChannelIndex(0)).source);
+		assertSame(kept.getOutputConnectionPoint(), g.getConnectionAtInputPoint(blend.getInputConnectionPointByChannelIndex(1)).source);
+	}
+
+	@Test
+	public void foldsUniformNodes() {
+		TextureGraph g = new TextureGraph();
+		TextureGraphNode constant = node(g, new PatternConstantColor(0.25f, 0.5f, 0.75f));
+		FilterMath1 m = new FilterMath1();
+		((FloatParam) m.getParamByName("A")).set(0.125f);
+		TextureGraphNode math = node(g, m);
+		TextureGraphNode blend = node(g, new FilterBlend());
+		connect(g, constant, math, 0);
+		connect(g, node(g, new PatternPerlinNoise()), blend, 0);
+		connect(g, math, blend, 1);
+		blend.getChannel().exportName.set("out");
+		assertTrue(m.isUniform());
+
+		assertEquals(1, TextureGraphOptimizer.optimize(g));
+		Channel folded = g.getConnectionAtInputPoint(blend.getInputConnectionPointByChannelIndex(1)).source.parent.getChannel();
+		assertTrue(folded instanceof PatternConstantColor);
+		Vector4 c = folded.valueRGBA(0.5f, 0.5f);
+		assertEquals(0.375f, c.x, 0.0f);
+		assertEquals(0.625f, c.y, 0.0f);
+		assertEquals(0.875f, c.z, 0.0f);
+	}
+}
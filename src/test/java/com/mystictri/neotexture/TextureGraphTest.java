@@ -0,0 +1,54 @@
+package com.mystictri.neotexture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.mystictri.neotexture.TextureGraph.TextureNodeConnection;
+
+import engine.graphics.synthesis.texture.FilterBlend;
+import engine.graphics.synthesis.texture.PatternPerlinNoise;
+import engine.parameters.Tokenizer;
+
+public class TextureGraphTest {
+	static String save() throws IOException {
+		TextureGraph g = new TextureGraph();
+		TextureGraphNode a = new TextureGraphNode(new PatternPerlinNoise());
+		TextureGraphNode b = new TextureGraphNode(new PatternPerlinNoise());
+		TextureGraphNode blend = new TextureGraphNode(new FilterBlend());
+		g.addNode(a);
+		g.addNode(b);
+		g.addNode(blend);
+		g.addConnection(new TextureNodeConnection(a.getOutputConnectionPoint(), blend.getInputConnectionPointByChannelIndex(0)));
+		g.addConnection(new TextureNodeConnection(b.getOutputConnectionPoint(), blend.getInputConnectionPointByChannelIndex(1)));
+		StringWriter w = new StringWriter();
+		g.save(w);
+		return w.toString();
+	}
+
+	@Test
+	public void loadsSavedGraphs() throws IOException {
+		TextureGraph g = new TextureGraph();
+		assertTrue(g.load(new Tokenizer(save())));
+		assertEquals(3, g.getAllNodes().size());
+		assertEquals(2, g.allConnections.size());
+	}
+
+	@Test
+	public void skipsNodesOfUnknownClasses() throws IOException {
+		String data = save();
+		String name = PatternPerlinNoise.class.getName();
+		int first = data.indexOf(name);
+		data = data.substring(0, first) + "does.not.Exist" + data.substring(first + name.length());
+
+		TextureGraph g = new TextureGraph();
+		assertFalse(g.load(new Tokenizer(data)));
+		assertEquals(2, g.getAllNodes().size());
+		assertEquals(1, g.allConnections.size());
+	}
+}
@@ -0,0 +1,65 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FMathTest {
+	@Test
+	public void fastMathOnlyAffectsTheCallingThread() throws InterruptedException {
+		final boolean[] otherThread = new boolean[2];
+		boolean old = FMath.setFastMath(true);
+		try {
+			Thread t = new Thread(() -> {
+				otherThread[0] = FMath.isFastMath();
+			});
+			t.start();
+			t.join();
+			assertTrue(FMath.isFastMath());
+		} finally {
+			FMath.setFastMath(old);
+		}
+		assertFalse(otherThread[0]);
+	}
+
+	@Test
+	public void fastArgumentSelectsTheApproximation() {
+		assertEquals(FMath.fastSin(1.0f), FMath.sin(1.0f, true), 0.0f);
+		assertEquals(FMath.fastPow(0.3f, 2.2f), FMath.pow(0.3f, 2.2f, true), 0.0f);
+		assertEquals((float) Math.sin(1.0f), FMath.sin(1.0f, false), 0.0f);
+		// the plain functions are always exact
+		boolean old = FMath.setFastMath(true);
+		try {
+			assertEquals((float) Math.sin(1.0f), FMath.sin(1.0f), 0.0f);
+		} finally {
+			FMath.setFastMath(old);
+		}
+	}
+
+	@Test
+	public void setFastMathReturnsThePreviousMode() {
+		assertFalse(FMath.setFastMath(true));
+		assertTrue(FMath.setFastMath(false));
+		assertFalse(FMath.isFastMath());
+	}
+}
@@ -0,0 +1,61 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FRandomTest {
+	@Test
+	public void sequenceMatchesJavaUtilRandom() {
+		FRandom f = new FRandom(3123);
+		Random r = new Random(3123);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(r.nextFloat(), f.nextFloat(), 0.0f);
+			assertEquals(r.nextInt(37), f.nextInt(37));
+			assertEquals(r.nextInt(64), f.nextInt(64));
+			assertEquals(r.nextLong(), f.nextLong());
+		}
+	}
+
+	@Test
+	public void hashIsStatelessAndUniform() {
+		final int n = 256;
+		int[] buckets = new int[16];
+		for (int y = 0; y < n; y++) {
+			for (int x = 0; x < n; x++) {
+				float h = FRandom.hash(42, x, y);
+				assertTrue(h >= 0.0f && h < 1.0f);
+				assertEquals(h, FRandom.hash(42, x, y), 0.0f);
+				buckets[(int) (h * buckets.length)]++;
+			}
+		}
+		// each bucket expects n*n/16 = 4096 values
+		for (int b : buckets) {
+			assertTrue(Math.abs(b - n * n / buckets.length) < 400);
+		}
+		assertNotEquals(FRandom.hash(42, 1, 0), FRandom.hash(42, 0, 1), 0.0f);
+		assertNotEquals(FRandom.hash(42, 3, 5), FRandom.hash(43, 3, 5), 0.0f);
+	}
+}
@@ -0,0 +1,68 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.base.datastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import engine.base.FRandom;
+
+public class RandomizedKDForestTest {
+	static NdVector randomPoint(FRandom rnd, int dim) {
+		NdVector p = new NdVector(dim);
+		for (int d = 0; d < dim; d++) p.set(d, rnd.nextFloat());
+		return p;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsDimensionOne() {
+		new RandomizedKDForest<NdVector>(1);
+	}
+
+	@Test
+	public void findsExactNearestIfAllPointsAreChecked() {
+		FRandom rnd = new FRandom(1);
+		RandomizedKDForest<NdVector> forest = new RandomizedKDForest<NdVector>(24, 4, Integer.MAX_VALUE);
+		for (int i = 0; i < 500; i++) forest.add(randomPoint(rnd, 24));
+		forest.build();
+
+		// repeated lookups reuse the search state of the thread
+		for (int q = 0; q < 200; q++) {
+			NdVector pos = randomPoint(rnd, 24);
+			NdVector best = null;
+			for (int i = 0; i < forest.size(); i++) {
+				if (best == null || pos.nd_distance2Func(forest.get(i)) < pos.nd_distance2Func(best)) best = forest.get(i);
+			}
+			assertSame(best, forest.getNearest(pos));
+		}
+	}
+
+	@Test
+	public void approximateLookupsAreRepeatable() {
+		FRandom rnd = new FRandom(2);
+		RandomizedKDForest<NdVector> forest = new RandomizedKDForest<NdVector>(16, 2, 8);
+		for (int i = 0; i < 1000; i++) forest.add(randomPoint(rnd, 16));
+		forest.build();
+		NdVector pos = randomPoint(rnd, 16);
+		NdVector first = forest.getNearest(pos);
+		assertEquals(first, forest.getNearest(pos));
+	}
+}
@@ -0,0 +1,200 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.graphics.synthesis.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import engine.base.FMath;
+import engine.base.Matrix3x3;
+import engine.base.Vector4;
+import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+
+public class CacheTileManagerTest {
+	static final int RES = 32;
+
+	static void assertTileEquals(Channel c, TileCacheEntry tile) {
+		for (int y = 0; y < RES; y++) {
+			for (int x = 0; x < RES; x++) {
+				Vector4 expected = c.valueRGBA((float) x / RES, (float) y / RES);
+				Vector4 cached = tile.sample(x, y);
+				assertEquals(expected.x, cached.x, 0.0f);
+				assertEquals(expected.y, cached.y, 0.0f);
+				assertEquals(expected.z, cached.z, 0.0f);
+			}
+		}
+	}
+
+	@Test
+	public void changingFastMathRecomputesCachedTiles() {
+		PatternFunction p = new PatternFunction();
+		p.scaleX.set(7.0f);
+		p.scaleY.set(5.0f);
+
+		assertTileEquals(p, CacheTileManager.getCache(p, 0, 0, RES, RES, RES, RES));
+		boolean old = FMath.setFastMath(true);
+		try {
+			assertTileEquals(p, CacheTileManager.getCache(p, 0, 0, RES, RES, RES, RES));
+		} finally {
+			FMath.setFastMath(old);
+		}
+		assertTileEquals(p, CacheTileManager.getCache(p, 0, 0, RES, RES, RES, RES));
+	}
+
+	@Test
+	public void prepareReadsTheFastMathMode() {
+		FilterMath1 m = new FilterMath1();
+		m.setInputChannel(0, new PatternFunction());
+		m.function.setEnumPos(3);
+		m.A.set(2.2f);
+		m.prepareEvaluation(0.0f);
+		float exact = m.valueRGBA(0.3f, 0.2f).x;
+		boolean old = FMath.setFastMath(true);
+		try {
+			m.prepareEvaluation(0.0f);
+			float in = m.inputChannels[0].valueRGBA(0.3f, 0.2f).x;
+			assertEquals(FMath.fastPow(in, 2.2f), m.valueRGBA(0.3f, 0.2f).x, 0.0f);
+		} finally {
+			FMath.setFastMath(old);
+		}
+		m.prepareEvaluation(0.0f);
+		assertEquals(exact, m.valueRGBA(0.3f, 0.2f).x, 0.0f);
+	}
+
+	@Test
+	public void inputsAreCachedWithTheFootprintOfTheDirectEvaluation() {
+		PatternPerlinNoise p = new PatternPerlinNoise();
+		p.bandLimit.set(true);
+		// so that the pixels are not on the lattice where all bands are 0
+		p.scaleX.set(3.0f);
+		p.scaleY.set(3.0f);
+		FilterTransform t = new FilterTransform();
+		t.setInputChannel(0, p);
+		t.transformation.getMatrix().set(Matrix3x3.Create2DHomogenous_Scale(0.25f, 0.25f));
+		t.sampling.setEnumPos(3); // Exact
+		FilterBlend b = new FilterBlend();
+		// the default blend shows input 1
+		b.setInputChannel(0, t);
+		b.setInputChannel(1, p);
+
+		// p is shared; the direct evaluation uses the smaller footprint of the transformed path
+		b.prepareEvaluation(Channel.pixelFootprint(RES, RES));
+		float[] expected = new float[RES * RES];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = b.valueRGBA((float) (i % RES) / RES, (float) (i / RES) / RES).x;
+		}
+		TileCacheEntry tile = CacheTileManager.getCache(b, 0, 0, RES, RES, RES, RES);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tile.sample(i % RES, i / RES).x, 1e-6f);
+		}
+	}
+
+	@Test
+	public void channelsWithATransferLUTAreNotFused() {
+		FilterMath1 m = new FilterMath1();
+		m.setInputChannel(0, new PatternFunction());
+		m.function.setEnumPos(3);
+		m.A.set(0.4f);
+		FilterBlend b = new FilterBlend(); // shows input 1
+		b.setInputChannel(0, new PatternFunction());
+		b.setInputChannel(1, m);
+		Channel.setTransferLUTSize(64);
+		try {
+			TileCacheEntry blended = CacheTileManager.getCache(b, 0, 0, RES, RES, RES, RES);
+			TileCacheEntry tile = CacheTileManager.getCache(m, 0, 0, RES, RES, RES, RES);
+			for (int y = 0; y < RES; y++) {
+				for (int x = 0; x < RES; x++) {
+					assertEquals(tile.sample(x, y).x, blended.sample(x, y).x, 0.0f);
+				}
+			}
+		} finally {
+			Channel.setTransferLUTSize(0);
+		}
+	}
+
+	@Test
+	public void bicubicSamplingDoesNotOvershoot() {
+		PatternFunction p = new PatternFunction();
+		p.functionU.setEnumPos(2);
+		p.functionV.setEnumPos(2);
+		p.scaleX.set(3.0f);
+		p.scaleY.set(3.0f);
+
+		TileCacheEntry tile = CacheTileManager.getCache(p, 0, 0, RES, RES, RES, RES);
+		for (int i = 0; i < 4 * RES * RES; i++) {
+			Vector4 s = tile.sample_Normalized(i * 0.618034f / RES, i * 0.381966f / RES, CacheTileManager.SampleFilter.BICUBIC);
+			assertTrue(s.x >= 0.0f && s.x <= 1.0f);
+			assertTrue(s.y >= 0.0f && s.y <= 1.0f);
+			assertTrue(s.z >= 0.0f && s.z <= 1.0f);
+		}
+	}
+
+	// counts the evaluations of its per pixel function
+	static final class CountingMath1 extends FilterMath1 {
+		int evaluations = 0;
+
+		boolean cache_tileFunction(TileCacheEntry out, TileCacheEntry[] in) {
+			return false;
+		}
+
+		protected void cache_function(Vector4 out, TileCacheEntry[] caches, int localX, int localY, float u, float v) {
+			evaluations++;
+			super.cache_function(out, caches, localX, localY, u, v);
+		}
+	}
+
+	@Test
+	public void fusionEvaluatesSharedInputsOnce() {
+		CountingMath1 shared = new CountingMath1();
+		shared.setInputChannel(0, new PatternFunction());
+		// a chain of diamonds: each blend uses the previous channel twice
+		Channel top = shared;
+		for (int i = 0; i < 8; i++) {
+			FilterBlend b = new FilterBlend();
+			b.setInputChannel(0, top);
+			b.setInputChannel(1, top);
+			top = b;
+		}
+
+		CacheTileManager.getCache(top, 0, 0, RES, RES, RES, RES);
+		assertEquals(RES * RES, shared.evaluations);
+	}
+
+	@Test
+	public void structurallyIdenticalChannelsAreComputedOnce() {
+		CountingMath1 a = new CountingMath1();
+		a.setInputChannel(0, new PatternFunction());
+		CountingMath1 b = new CountingMath1();
+		b.setInputChannel(0, new PatternFunction());
+		FilterBlend blend = new FilterBlend();
+		blend.setInputChannel(0, a);
+		blend.setInputChannel(1, b);
+
+		assertTileEquals(blend, CacheTileManager.getCache(blend, 0, 0, RES, RES, RES, RES));
+		assertEquals(RES * RES, a.evaluations + b.evaluations);
+
+		// a changed duplicate is no longer shared
+		b.A.set(0.5f);
+		blend.parameterChanged(null); // done by the connections of a graph
+		assertTileEquals(blend, CacheTileManager.getCache(blend, 0, 0, RES, RES, RES, RES));
+		assertTrue(b.evaluations > 0);
+	}
+}
@@ -0,0 +1,120 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.graphics.synthesis.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import engine.base.Vector4;
+import engine.graphics.synthesis.texture.ChannelCompiler.CompiledChannel;
+import engine.parameters.FloatParam;
+
+public class ChannelCompilerTest {
+	static FilterMath1 math(float a) {
+		FilterMath1 m = new FilterMath1();
+		m.setInputChannel(0, new PatternFunction());
+		m.function.setEnumPos(1);
+		m.A.set(a);
+		return m;
+	}
+
+	static void assertSameValues(Channel c, CompiledChannel cc) {
+		for (int i = 0; i < 256; i++) {
+			float u = i * 0.618034f, v = i * 0.381966f;
+			Vector4 expected = c.valueRGBA(u, v);
+			Vector4 compiled = cc.valueRGBA(u, v);
+			assertEquals(expected.x, compiled.x, 0.0f);
+			assertEquals(expected.y, compiled.y, 0.0f);
+			assertEquals(expected.z, compiled.z, 0.0f);
+			assertEquals(expected.w, compiled.w, 0.0f);
+		}
+	}
+
+	@Test
+	public void parametersDoNotChangeTheGeneratedClass() {
+		FilterMath1 m = math(0.25f);
+		m.prepareEvaluation(0.0f);
+		CompiledChannel first = ChannelCompiler.compile(m);
+		assertNotNull(first);
+		assertSameValues(m, first);
+
+		m.A.set(0.75f);
+		m.prepareEvaluation(0.0f);
+		CompiledChannel second = ChannelCompiler.compile(m);
+		assertSame(first.getClass(), second.getClass());
+		assertSameValues(m, second);
+	}
+
+	@Test
+	public void transferLUTsAreUsedByTheCompiledChannel() {
+		FilterColorCorrect cc = new FilterColorCorrect();
+		cc.setInputChannel(0, math(0.25f));
+		((FloatParam) cc.getParamByName("Gamma")).set(2.2f);
+		FilterMath1 m = new FilterMath1();
+		m.setInputChannel(0, cc);
+		m.function.setEnumPos(3);
+		m.A.set(0.4f);
+		// the chain with the lookup table is a leaf of the compiled blend
+		FilterBlend b = new FilterBlend();
+		b.setInputChannel(0, new PatternFunction());
+		b.setInputChannel(1, m);
+		Channel.setTransferLUTSize(64);
+		try {
+			b.prepareEvaluation(0.0f);
+			CompiledChannel compiled = ChannelCompiler.compile(b);
+			assertNotNull(compiled);
+			assertSameValues(b, compiled);
+		} finally {
+			Channel.setTransferLUTSize(0);
+		}
+	}
+
+	@Test
+	public void aFailingChannelDoesNotDisableTheCompiler() {
+		FilterMath1 broken = new FilterMath1() {
+			boolean compile(ChannelCompiler compiler, StringBuilder code, String[] out, String[][] in) {
+				code.append("\t\tnot java;\n");
+				return true;
+			}
+		};
+		broken.setInputChannel(0, new PatternFunction());
+		broken.prepareEvaluation(0.0f);
+		// the compiler errors are logged, not printed
+		PrintStream err = System.err;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(printed));
+		try {
+			assertNull(ChannelCompiler.compile(broken));
+		} finally {
+			System.setErr(err);
+		}
+		assertEquals(0, printed.size());
+
+		FilterMath1 m = math(2.0f);
+		m.prepareEvaluation(0.0f);
+		assertNotNull(ChannelCompiler.compile(m));
+	}
+}
@@ -0,0 +1,94 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.graphics.synthesis.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+
+public class FilterBlurTest {
+	static final int RES = 128;
+	static final int TILE = 32;
+
+	// a Box blur of a checker board whose period is the width of the box
+	static FilterBlur checkerBoxBlur(float angle) {
+		PatternFunction p = new PatternFunction();
+		p.functionU.setEnumPos(2);
+		p.functionV.setEnumPos(2);
+		p.scaleX.set(4.0f);
+		p.scaleY.set(4.0f);
+		FilterBlur blur = new FilterBlur();
+		blur.setInputChannel(0, p);
+		blur.weightFunction.setEnumPos(1);
+		blur.radius.set(12.5f);
+		blur.numSamples.set(1024);
+		blur.angle.set(angle);
+		return blur;
+	}
+
+	// the smallest and largest red value of the cached tiles and their mean
+	// difference to the uncached evaluation
+	static float[] evaluate(FilterBlur blur) {
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE, diff = 0.0f;
+		for (int py = 0; py < RES / TILE; py++) {
+			for (int px = 0; px < RES / TILE; px++) {
+				TileCacheEntry tile = CacheTileManager.getCache(blur, px, py, TILE, TILE, RES, RES);
+				for (int y = 0; y < TILE; y++) {
+					for (int x = 0; x < TILE; x++) {
+						float cached = tile.sample(x, y).x;
+						float direct = blur.valueRGBA((float) (px * TILE + x) / RES, (float) (py * TILE + y) / RES).x;
+						min = Math.min(min, cached);
+						max = Math.max(max, cached);
+						diff += Math.abs(cached - direct);
+					}
+				}
+			}
+		}
+		return new float[] { min, max, diff / (RES * RES) };
+	}
+
+	@Test
+	public void axisAlignedBoxIsIntegratedExactly() {
+		float[] r = evaluate(checkerBoxBlur(0.0f));
+		assertEquals(r[0], r[1], 1e-4f);
+		assertTrue(r[2] < 0.05f);
+	}
+
+	@Test
+	public void rotatedBoxIsNotTreatedAsAxisAligned() {
+		float[] r = evaluate(checkerBoxBlur(45.0f));
+		assertTrue(r[1] - r[0] > 0.1f);
+		assertTrue(r[2] < 0.05f);
+	}
+
+	@Test
+	public void separableGaussianMatchesTheStochasticFilter() {
+		FilterBlur blur = new FilterBlur();
+		blur.setInputChannel(0, new PatternPerlinNoise());
+		blur.radius.set(5.0f);
+		blur.numSamples.set(1024);
+		// the direct evaluation samples the Gaussian stochastically
+		float[] r = evaluate(blur);
+		assertTrue(blur.state.separable);
+		assertTrue(r[2] < 0.01f);
+	}
+}
@@ -0,0 +1,76 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package engine.graphics.synthesis.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import engine.base.Matrix3x3;
+
+public class PatternPerlinNoiseTest {
+	static final float FOOTPRINT = Channel.pixelFootprint(64, 64);
+
+	@Test
+	public void bandLimitIsOffByDefault() {
+		PatternPerlinNoise p = new PatternPerlinNoise();
+		assertFalse(p.bandLimit.get());
+		p.prepareEvaluation(FOOTPRINT);
+		float[] coarse = new float[64];
+		for (int i = 0; i < coarse.length; i++) coarse[i] = p.value1f(i * 0.01f, i * 0.02f);
+		p.prepareEvaluation(0.0f);
+		for (int i = 0; i < coarse.length; i++) assertEquals(p.value1f(i * 0.01f, i * 0.02f), coarse[i], 0.0f);
+	}
+
+	@Test
+	public void transformScalesTheFootprint() {
+		PatternPerlinNoise p = new PatternPerlinNoise();
+		FilterTransform t = new FilterTransform();
+		t.setInputChannel(0, p);
+		t.transformation.getMatrix().set(Matrix3x3.Create2DHomogenous_Scale(0.25f, 0.125f));
+		t.prepareEvaluation(FOOTPRINT);
+		assertEquals(FOOTPRINT * 0.25f, p.footprint, 1e-9f);
+	}
+
+	@Test
+	public void warpDisablesBandLimitingOfItsInput() {
+		PatternPerlinNoise p = new PatternPerlinNoise();
+		PatternPerlinNoise d = new PatternPerlinNoise();
+		FilterWarp w = new FilterWarp();
+		w.setInputChannel(0, p);
+		w.setInputChannel(1, d);
+		w.prepareEvaluation(FOOTPRINT);
+		assertEquals(0.0f, p.footprint, 0.0f);
+		assertEquals(FOOTPRINT, d.footprint, 0.0f);
+	}
+
+	@Test
+	public void sharedInputUsesTheSmallestFootprint() {
+		PatternPerlinNoise p = new PatternPerlinNoise();
+		FilterTransform t = new FilterTransform();
+		t.setInputChannel(0, p);
+		t.transformation.getMatrix().set(Matrix3x3.Create2DHomogenous_Scale(0.25f, 0.25f));
+		FilterBlend b = new FilterBlend();
+		b.setInputChannel(0, p);
+		b.setInputChannel(1, t);
+		b.prepareEvaluation(FOOTPRINT);
+		assertEquals(FOOTPRINT * 0.25f, p.footprint, 1e-9f);
+	}
+}
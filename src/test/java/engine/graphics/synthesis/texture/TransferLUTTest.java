@@ -0,0 +1,87 @@
+/**
+    Copyright (C) 2010  Holger Dammertz
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package engine.graphics.synthesis.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import engine.base.Vector4;
+import engine.graphics.synthesis.texture.CacheTileManager.TileCacheEntry;
+
+public class TransferLUTTest {
+	static final int RES = 32;
+
+	static FilterMath1 pow(float a) {
+		FilterMath1 m = new FilterMath1();
+		m.setInputChannel(0, new PatternFunction());
+		m.function.setEnumPos(3);
+		m.A.set(a);
+		return m;
+	}
+
+	@Test
+	public void powWithSmallExponentIsAccurateNearZero() {
+		FilterMath1 m = pow(0.2f);
+		Channel.setTransferLUTSize(256);
+		try {
+			m.prepareEvaluation(0.0f);
+			TransferLUT lut = TransferLUT.create(m);
+			for (int i = 0; i <= 4096; i++) {
+				float x = i / 4096.0f;
+				Vector4 v = lut.apply(new Vector4(x, x, x, x));
+				assertEquals(m.transferFunction(0, x), v.x, 1e-3f);
+			}
+		} finally {
+			Channel.setTransferLUTSize(0);
+		}
+	}
+
+	@Test
+	public void changingTheLUTSizeRecomputesCachedTiles() {
+		FilterMath1 m = pow(0.2f);
+		m.prepareEvaluation(0.0f);
+		TileCacheEntry exact = CacheTileManager.getCache(m, 0, 0, RES, RES, RES, RES);
+		float[] expected = new float[RES * RES];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = exact.sample(i % RES, i / RES).x;
+		}
+
+		// a coarse table differs from the exact values above EXACT_ENTRIES / 32
+		Channel.setTransferLUTSize(32);
+		try {
+			m.prepareEvaluation(0.0f);
+			TileCacheEntry tile = CacheTileManager.getCache(m, 0, 0, RES, RES, RES, RES);
+			float maxDiff = 0.0f;
+			for (int i = 0; i < expected.length; i++) {
+				maxDiff = Math.max(maxDiff, Math.abs(expected[i] - tile.sample(i % RES, i / RES).x));
+			}
+			assertTrue(maxDiff > 0.0f);
+		} finally {
+			Channel.setTransferLUTSize(0);
+		}
+		m.prepareEvaluation(0.0f);
+		TileCacheEntry tile = CacheTileManager.getCache(m, 0, 0, RES, RES, RES, RES);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tile.sample(i % RES, i / RES).x, 0.0f);
+		}
+	}
+}